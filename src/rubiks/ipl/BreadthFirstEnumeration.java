@@ -0,0 +1,430 @@
+package rubiks.ipl;
+
+import ibis.ipl.Ibis;
+import ibis.ipl.IbisIdentifier;
+import ibis.ipl.MessageUpcall;
+import ibis.ipl.PortType;
+import ibis.ipl.ReadMessage;
+import ibis.ipl.ReceivePort;
+import ibis.ipl.SendPort;
+import ibis.ipl.WriteMessage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Breadth first search over all cubes of a size, from the solved cube, by all
+ * machines of the pool together (option --enumerate of {@link Rubiks}). Finds
+ * the number of cubes at each distance from solved, and the distance of the
+ * cube given.
+ *
+ * Each machine owns the cubes whose fingerprint hashes to it, and keeps the
+ * fingerprints of the cubes it owns reached so far. A level is expanded by
+ * every machine twisting the cubes it owns in the last level, and sending each
+ * cube reached to its owner, in messages of many cubes at once. Once a machine
+ * has sent all its cubes it tells all others. When all others have told it,
+ * it has received all cubes reached, and keeps those it did not reach before
+ * as its part of the next level. The machines then tell each other the size of
+ * their part, so all know when the search is done.
+ *
+ * Messages are received by upcalls, so machines sending to each other never
+ * wait for each other. A machine may receive cubes of the next level before it
+ * received all of the current one, so messages are kept by level.
+ *
+ */
+public final class BreadthFirstEnumeration implements MessageUpcall {
+
+    // kinds of messages
+    private static final int CUBES = 0; // cubes reached, for their owner
+
+    private static final int DONE = 1; // all cubes reached in a level sent
+
+    private static final int COUNT = 2; // new cubes of a level of the sender
+
+    // cubes per message
+    private static final int BATCH = 4096;
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private final Ibis ibis;
+
+    private final PortType portType;
+
+    // all machines of the pool, in the same order on each machine
+    private final IbisIdentifier[] machines;
+
+    private final int rank; // this machine in machines
+
+    private final boolean printResults;
+
+    // fingerprints of the cubes owned by this machine reached so far, slots
+    // found by linear probing, 0 for empty slots
+    private long[] seen = new long[INITIAL_CAPACITY];
+
+    private int seenCount;
+
+    private boolean seenZero; // the fingerprint 0, not kept in seen
+
+    // messages received but not used yet, by level. Guarded by this
+    private final Map<Integer, List<long[]>> received = new HashMap<Integer, List<long[]>>();
+
+    // machines done sending each level, guarded by this
+    private final Map<Integer, Integer> done = new HashMap<Integer, Integer>();
+
+    // new cubes of each level found by other machines, the number of machines
+    // which reported them, and if one is the cube given. Guarded by this
+    private final Map<Integer, Long> counted = new HashMap<Integer, Long>();
+
+    private final Map<Integer, Integer> reported = new HashMap<Integer, Integer>();
+
+    private final Map<Integer, Boolean> foundBy = new HashMap<Integer, Boolean>();
+
+    /**
+     * Creates an enumeration by all machines of the pool.
+     *
+     * @param ibis
+     *            ibis of this machine, its pool closed, with membership
+     *            downcalls
+     * @param portType
+     *            port type for the cubes, with upcalls and many to one
+     *            connections
+     * @param printResults
+     *            if this machine prints the results
+     */
+    public BreadthFirstEnumeration(Ibis ibis, PortType portType,
+            boolean printResults) {
+        this.ibis = ibis;
+        this.portType = portType;
+        this.printResults = printResults;
+
+        // the pool is closed, but this machine may not have heard of all
+        // others yet
+        List<IbisIdentifier> joined = new ArrayList<IbisIdentifier>();
+        while (joined.size() < ibis.registry().getPoolSize()) {
+            joined.addAll(Arrays.asList(ibis.registry().joinedIbises()));
+            if (joined.size() < ibis.registry().getPoolSize()) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        }
+        machines = joined.toArray(new IbisIdentifier[joined.size()]);
+        Arrays.sort(machines);
+        rank = Arrays.asList(machines).indexOf(ibis.identifier());
+    }
+
+    /**
+     * Runs the breadth first search. Every machine of the pool must call this,
+     * with the same cube.
+     *
+     * @param cube
+     *            cube to find the distance of, the search is over cubes of its
+     *            size and colors
+     * @param maxDepth
+     *            largest distance to search to, 0 to search all cubes
+     * @throws IOException
+     *             if sending or receiving fails
+     */
+    public void run(Cube cube, int maxDepth) throws IOException {
+        MoveTable moves = MoveTable.get(cube.getSize());
+        int packed = PackedCube.words(cube.getSize());
+        int stride = packed + 1; // longs per cube sent, its fingerprint first
+        long target = cube.getFingerprint();
+
+        ReceivePort receivePort = ibis.createReceivePort(portType, "cubes",
+                this);
+        receivePort.enableConnections();
+        receivePort.enableMessageUpcalls();
+
+        SendPort[] sendPorts = new SendPort[machines.length];
+        for (int i = 0; i < machines.length; i++) {
+            if (i != rank) {
+                sendPorts[i] = ibis.createSendPort(portType);
+                sendPorts[i].connect(machines[i], "cubes", 0, true);
+            }
+        }
+
+        if (printResults) {
+            System.out.println("Enumerating cubes of size " + cube.getSize()
+                    + " on " + machines.length + " machines");
+        }
+
+        // the last level of the cubes this machine owns, packed
+        Cube solved = cube.solved();
+        PackedCube scratch = solved.pack();
+        long[] frontier = new long[0];
+        int frontierSize = 0;
+        if (owner(solved.getFingerprint()) == rank) {
+            add(solved.getFingerprint());
+            frontier = Arrays.copyOf(scratch.words, packed);
+            frontierSize = 1;
+        }
+
+        long total = 1;
+        int distance = solved.getFingerprint() == target ? 0 : -1;
+        int depth = 0;
+        if (printResults) {
+            System.out.println("0 twists: 1 cubes");
+        }
+
+        Cube work = new Cube(solved);
+        for (int level = 1; maxDepth == 0 || level <= maxDepth; level++) {
+            // twist the cubes of the last level, send those reached to their
+            // owners
+            long[][] batches = new long[machines.length][BATCH * stride];
+            int[] filled = new int[machines.length];
+            List<long[]> local = new ArrayList<long[]>();
+            for (int i = 0; i < frontierSize; i++) {
+                System.arraycopy(frontier, i * packed, scratch.words, 0,
+                        packed);
+                work.unpack(scratch);
+                for (int move = 0; move < moves.getMoves(); move++) {
+                    work.apply(moves, move);
+                    long fingerprint = work.getFingerprint();
+                    int owner = owner(fingerprint);
+                    long[] batch = batches[owner];
+                    int offset = filled[owner] * stride;
+                    batch[offset] = fingerprint;
+                    System.arraycopy(work.pack().words, 0, batch, offset + 1,
+                            packed);
+                    filled[owner]++;
+                    if (filled[owner] == BATCH) {
+                        if (owner == rank) {
+                            local.add(batch);
+                            batches[owner] = new long[BATCH * stride];
+                        } else {
+                            send(sendPorts[owner], level, batch, BATCH
+                                    * stride);
+                        }
+                        filled[owner] = 0;
+                    }
+                    work.undo(moves, move);
+                }
+            }
+            for (int i = 0; i < machines.length; i++) {
+                if (i == rank) {
+                    local.add(Arrays.copyOf(batches[i], filled[i] * stride));
+                } else {
+                    send(sendPorts[i], level, batches[i], filled[i] * stride);
+                    WriteMessage message = sendPorts[i].newMessage();
+                    message.writeInt(DONE);
+                    message.writeInt(level);
+                    message.finish();
+                }
+            }
+            batches = null;
+
+            // keep the cubes not reached before
+            List<long[]> cubes = waitForCubes(level);
+            cubes.addAll(local);
+            frontier = new long[0];
+            frontierSize = 0;
+            boolean found = false;
+            for (long[] batch : cubes) {
+                for (int offset = 0; offset < batch.length; offset += stride) {
+                    if (add(batch[offset])) {
+                        if (frontier.length < (frontierSize + 1) * packed) {
+                            frontier = Arrays.copyOf(frontier, Math.max(
+                                    2 * frontier.length, BATCH * packed));
+                        }
+                        System.arraycopy(batch, offset + 1, frontier,
+                                frontierSize * packed, packed);
+                        frontierSize++;
+                        found |= batch[offset] == target;
+                    }
+                }
+            }
+            cubes = null;
+
+            // tell the others how many, and wait for theirs
+            for (int i = 0; i < machines.length; i++) {
+                if (i != rank) {
+                    WriteMessage message = sendPorts[i].newMessage();
+                    message.writeInt(COUNT);
+                    message.writeInt(level);
+                    message.writeLong(frontierSize);
+                    message.writeBoolean(found);
+                    message.finish();
+                }
+            }
+            long count;
+            synchronized (this) {
+                while (get(reported, level) < machines.length - 1) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                }
+                count = frontierSize + (counted.containsKey(level) ? counted
+                        .remove(level) : 0);
+                found |= foundBy.containsKey(level);
+                reported.remove(level);
+                foundBy.remove(level);
+            }
+
+            if (count == 0) {
+                break;
+            }
+            total += count;
+            depth = level;
+            if (found) {
+                distance = level;
+            }
+            if (printResults) {
+                System.out.println(level + " twists: " + count + " cubes");
+            }
+        }
+
+        for (SendPort sendPort : sendPorts) {
+            if (sendPort != null) {
+                sendPort.close();
+            }
+        }
+        receivePort.close();
+
+        if (printResults) {
+            System.out.println();
+            System.out.println(total + " cubes, up to " + depth
+                    + " twists from solved");
+            if (distance >= 0) {
+                System.out.println("Cube is " + distance
+                        + " twists from solved");
+            } else {
+                System.out.println("Cube is more than " + depth
+                        + " twists from solved");
+            }
+        }
+    }
+
+    /* Function called by Ibis to give us a newly arrived message. */
+    public void upcall(ReadMessage message) throws IOException {
+        int kind = message.readInt();
+        int level = message.readInt();
+
+        if (kind == CUBES) {
+            long[] cubes = new long[message.readInt()];
+            message.readArray(cubes);
+            synchronized (this) {
+                List<long[]> list = received.get(level);
+                if (list == null) {
+                    list = new ArrayList<long[]>();
+                    received.put(level, list);
+                }
+                list.add(cubes);
+            }
+        } else if (kind == DONE) {
+            synchronized (this) {
+                done.put(level, get(done, level) + 1);
+                notifyAll();
+            }
+        } else if (kind == COUNT) {
+            long count = message.readLong();
+            boolean found = message.readBoolean();
+            synchronized (this) {
+                counted.put(level, count
+                        + (counted.containsKey(level) ? counted.get(level) : 0));
+                reported.put(level, get(reported, level) + 1);
+                if (found) {
+                    foundBy.put(level, true);
+                }
+                notifyAll();
+            }
+        } else {
+            throw new Error("unknown message: " + kind);
+        }
+    }
+
+    // *** Only private functions ahead. ***\\
+
+    /**
+     * Waits until all other machines sent their cubes of a level, and returns
+     * these cubes.
+     */
+    private synchronized List<long[]> waitForCubes(int level) {
+        while (get(done, level) < machines.length - 1) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        }
+        done.remove(level);
+        List<long[]> result = received.remove(level);
+        return result == null ? new ArrayList<long[]>() : result;
+    }
+
+    private void send(SendPort sendPort, int level, long[] cubes, int length)
+            throws IOException {
+        if (length == 0) {
+            return;
+        }
+        WriteMessage message = sendPort.newMessage();
+        message.writeInt(CUBES);
+        message.writeInt(level);
+        message.writeInt(length);
+        message.writeArray(cubes, 0, length);
+        message.finish();
+    }
+
+    private int owner(long fingerprint) {
+        long hash = fingerprint * 0x9e3779b97f4a7c15L;
+        return (int) ((hash >>> 1) % machines.length);
+    }
+
+    private static int get(Map<Integer, Integer> map, int level) {
+        Integer result = map.get(level);
+        return result == null ? 0 : result;
+    }
+
+    /**
+     * Adds the fingerprint of a cube owned by this machine. Returns if it was
+     * not reached before.
+     */
+    private boolean add(long fingerprint) {
+        if (fingerprint == 0) {
+            boolean result = !seenZero;
+            seenZero = true;
+            return result;
+        }
+
+        int mask = seen.length - 1;
+        int slot = slot(fingerprint, mask);
+        while (seen[slot] != 0) {
+            if (seen[slot] == fingerprint) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        seen[slot] = fingerprint;
+        seenCount++;
+
+        // keep the table at most half full
+        if (2 * seenCount > seen.length) {
+            long[] old = seen;
+            seen = new long[2 * old.length];
+            mask = seen.length - 1;
+            for (long key : old) {
+                if (key != 0) {
+                    slot = slot(key, mask);
+                    while (seen[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    seen[slot] = key;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int slot(long fingerprint, int mask) {
+        long hash = fingerprint * 0xc2b2ae3d27d4eb4fL;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,493 @@
+package rubiks.ipl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Pattern database of the centers of a 4x4x4 cube, the counterpart of
+ * {@link PatternDatabase} for this size. A 4x4x4 cube has 24 center
+ * elements, four of each color. The database looks at the eight centers of
+ * one pair of opposite colors, without telling the two colors apart: for
+ * every choice of 8 of the 24 center positions it holds the number of
+ * twists needed to move these centers onto the two sides of their pair. No
+ * cube can be solved in fewer twists, so this is a lower bound for the
+ * search, as is the number of misplaced elements (see
+ * {@link Cube#lowerBound(MoveTable)}), and the largest of them is used.
+ *
+ * One table serves all three pairs. The twists never move the corner
+ * between the top, left and front side, and turning the whole cube a third
+ * around the diagonal through this corner turns every twist into another
+ * twist. This turn takes the front and back sides onto the left and right
+ * sides, and those onto the top and bottom sides, so the centers of the
+ * other two pairs are turned onto the top and bottom pair before looking
+ * them up.
+ *
+ * An entry is the rank of the positions in the combinatorial number system,
+ * and holds the distance in a byte. The table is built by a breadth first search
+ * from the solved centers on first use, or mapped into memory from a file
+ * written by {@link PatternDatabaseGenerator} with {@link #load(String)}.
+ *
+ * There is only one database, shared by all threads.
+ *
+ */
+public final class CenterDatabase {
+
+    // size of the cubes this database is for
+    static final int SIZE = 4;
+
+    private static final int CENTERS = 24;
+
+    private static final int PAIR = 8; // centers of a pair of colors
+
+    static final int ENTRIES = 735471; // 24 choose 8
+
+    // first int of a center database file
+    private static final int MAGIC = 0x43454e54;
+
+    // number of pairs of opposite sides, and the pair of each side. The
+    // diagonal turn takes each pair onto the previous one.
+    private static final int AXES = 3;
+
+    private static final int[] AXIS = { 0, 2, 1, 2, 1, 0 };
+
+    private static volatile CenterDatabase database;
+
+    // binomial coefficients, at index n * (PAIR + 1) + k
+    private static final int[] binomial = new int[(CENTERS + 1) * (PAIR + 1)];
+
+    static {
+        for (int n = 0; n <= CENTERS; n++) {
+            binomial[n * (PAIR + 1)] = 1;
+            for (int k = 1; k <= PAIR && k <= n; k++) {
+                binomial[n * (PAIR + 1) + k] = binomial[(n - 1) * (PAIR + 1)
+                        + k - 1]
+                        + (k < n ? binomial[(n - 1) * (PAIR + 1) + k] : 0);
+            }
+        }
+    }
+
+    // element of each center position
+    private final int[] centerElements = new int[CENTERS];
+
+    /*
+     * bit of each center position of a pair, once turned onto the top and
+     * bottom pair, at index axis * CENTERS + position
+     */
+    private final int[] turnedBits = new int[AXES * CENTERS];
+
+    /*
+     * position each center moves to with each twist, at index move * CENTERS
+     * + position
+     */
+    private final int[] centerMoves;
+
+    private final int moves;
+
+    // twists needed to solve the centers of the top and bottom pair, by rank
+    private final ByteBuffer distances;
+
+    /**
+     * Returns the (shared) database, building it on first use.
+     *
+     * @return the center database
+     */
+    public static CenterDatabase get() {
+        CenterDatabase result = database;
+        if (result != null) {
+            return result;
+        }
+        return create();
+    }
+
+    private static synchronized CenterDatabase create() {
+        if (database == null) {
+            database = new CenterDatabase(null);
+        }
+        return database;
+    }
+
+    /**
+     * Returns if a file holds a center database, rather than the databases
+     * of {@link PatternDatabase}.
+     *
+     * @param fileName
+     *            file to look at
+     * @return true if the file starts like a center database file
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    public static boolean isCenterDatabase(String fileName) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            return file.length() >= 4 && file.readInt() == MAGIC;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Maps a database written by {@link PatternDatabaseGenerator} into memory,
+     * and uses it from then on instead of building it. Must be done before
+     * searching.
+     *
+     * @param fileName
+     *            file to load the database from
+     * @return the loaded database
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    public static synchronized CenterDatabase load(String fileName)
+            throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            if (file.length() < 8 || file.readInt() != MAGIC) {
+                throw new IOException(fileName
+                        + " is not a center database file");
+            }
+            int entries = file.readInt();
+            if (entries != ENTRIES) {
+                throw new IOException("center database has " + entries
+                        + " entries instead of " + ENTRIES);
+            }
+            if (8 + entries > file.length()) {
+                throw new IOException(fileName + " is too short");
+            }
+
+            // the mapping stays valid once the file is closed
+            database = new CenterDatabase(file.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 8, entries));
+        } finally {
+            file.close();
+        }
+        return database;
+    }
+
+    /**
+     * Writes the database to a file, to be loaded with {@link #load(String)}.
+     *
+     * @param fileName
+     *            file to write to
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public void write(String fileName) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(fileName)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(ENTRIES);
+            for (int i = 0; i < ENTRIES; i++) {
+                out.writeByte(distances.get(i));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Describes the centers, and finds the distances if none are given.
+     */
+    private CenterDatabase(ByteBuffer distances) {
+        MoveTable table = MoveTable.get(SIZE);
+        moves = table.getMoves();
+        int last = SIZE - 1;
+        int elements = Cube.SIDES * SIZE * SIZE;
+
+        int[] centerIndex = new int[elements];
+        int centers = 0;
+        for (int element = 0; element < elements; element++) {
+            int row = (element / SIZE) % SIZE;
+            int column = element % SIZE;
+            if (row == 0 || row == last || column == 0 || column == last) {
+                centerIndex[element] = -1;
+            } else {
+                centerIndex[element] = centers;
+                centerElements[centers++] = element;
+            }
+        }
+
+        // the diagonal turn, and its inverse (the turn done twice)
+        int[] turn = new int[elements];
+        for (int element = 0; element < elements; element++) {
+            turn[element] = turn(element);
+        }
+        checkTurn(table, turn);
+        for (int position = 0; position < CENTERS; position++) {
+            int element = centerElements[position];
+            int inverse = turn[turn[element]];
+            turnedBits[position] = 1 << position;
+            turnedBits[2 * CENTERS + position] = 1 << centerIndex[turn[element]];
+            turnedBits[CENTERS + position] = 1 << centerIndex[inverse];
+        }
+
+        // where each twist moves the centers
+        byte[] labels = new byte[elements];
+        byte[] twisted = new byte[elements];
+        for (int element = 0; element < elements; element++) {
+            labels[element] = (byte) element;
+        }
+        centerMoves = new int[moves * CENTERS];
+        for (int move = 0; move < moves; move++) {
+            table.apply(move, labels, twisted);
+            for (int position = 0; position < CENTERS; position++) {
+                int from = centerIndex[twisted[centerElements[position]]];
+                centerMoves[move * CENTERS + from] = position;
+            }
+        }
+
+        if (distances == null) {
+            distances = generate();
+        }
+        this.distances = distances;
+    }
+
+    /**
+     * Returns a lower bound on the number of twists needed to solve a cube:
+     * the largest number of twists needed to solve the centers of any pair
+     * of colors.
+     *
+     * @param cube
+     *            a 4x4x4 cube
+     * @return the number of twists needed to solve the centers
+     */
+    public int distance(Cube cube) {
+        // axis of the side of each color once the cube is solved
+        int[] axis = new int[Cube.SIDES];
+        byte[] solved = cube.getSolvedColors();
+        for (int side = 0; side < Cube.SIDES; side++) {
+            axis[solved[side]] = AXIS[side];
+        }
+
+        int[] masks = new int[AXES];
+        for (int position = 0; position < CENTERS; position++) {
+            int pair = axis[cube.getColor(centerElements[position])];
+            masks[pair] |= turnedBits[pair * CENTERS + position];
+        }
+
+        int result = 0;
+        for (int pair = 0; pair < AXES; pair++) {
+            result = Math.max(result, distances.get(rank(masks[pair])));
+        }
+        return result;
+    }
+
+    // *** Only private functions ahead. ***\\
+
+    /**
+     * Breadth first search from the solved centers of the top and bottom
+     * pair, one level at a time.
+     */
+    private ByteBuffer generate() {
+        byte[] result = new byte[ENTRIES];
+        Arrays.fill(result, (byte) -1);
+
+        // positions of each entry: 8 bit masks in increasing order have
+        // increasing ranks
+        int[] masks = new int[ENTRIES];
+        int mask = (1 << PAIR) - 1;
+        for (int index = 0; index < ENTRIES; index++) {
+            masks[index] = mask;
+            int lowest = mask & -mask;
+            int carried = mask + lowest;
+            mask = carried | (((mask ^ carried) >>> 2) / lowest);
+        }
+
+        int solved = 0;
+        for (int position = 0; position < CENTERS; position++) {
+            int side = centerElements[position] / (SIZE * SIZE);
+            if (AXIS[side] == 0) {
+                solved |= 1 << position;
+            }
+        }
+        result[rank(solved)] = 0;
+
+        boolean reached = true;
+        for (int depth = 0; reached; depth++) {
+            reached = false;
+            for (int index = 0; index < ENTRIES; index++) {
+                if (result[index] != depth) {
+                    continue;
+                }
+                for (int move = 0; move < moves; move++) {
+                    int neighbour = rank(twist(masks[index], move));
+                    if (result[neighbour] < 0) {
+                        result[neighbour] = (byte) (depth + 1);
+                        reached = true;
+                    }
+                }
+            }
+        }
+        return ByteBuffer.wrap(result);
+    }
+
+    private int twist(int mask, int move) {
+        int base = move * CENTERS;
+        int result = 0;
+        while (mask != 0) {
+            int position = Integer.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            result |= 1 << centerMoves[base + position];
+        }
+        return result;
+    }
+
+    /**
+     * Returns the rank of 8 positions, in the combinatorial number system.
+     */
+    private static int rank(int mask) {
+        int result = 0;
+        for (int k = 1; mask != 0; k++) {
+            int position = Integer.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            result += binomial[position * (PAIR + 1) + k];
+        }
+        return result;
+    }
+
+    /**
+     * Checks that the diagonal turn takes every twist onto a twist, so the
+     * centers of every pair are as far from solved as once turned.
+     */
+    private void checkTurn(MoveTable table, int[] turn) {
+        int elements = turn.length;
+        int[][] from = new int[moves][elements];
+        byte[] labels = new byte[elements];
+        byte[] twisted = new byte[elements];
+        for (int element = 0; element < elements; element++) {
+            labels[element] = (byte) element;
+        }
+        for (int move = 0; move < moves; move++) {
+            table.apply(move, labels, twisted);
+            for (int element = 0; element < elements; element++) {
+                from[move][element] = twisted[element];
+            }
+        }
+
+        int[] turned = new int[elements];
+        for (int move = 0; move < moves; move++) {
+            for (int element = 0; element < elements; element++) {
+                turned[turn[element]] = turn[from[move][element]];
+            }
+            boolean found = false;
+            for (int other = 0; other < moves && !found; other++) {
+                found = Arrays.equals(turned, from[other]);
+            }
+            if (!found) {
+                throw new Error("diagonal turn does not take twist " + move
+                        + " onto a twist");
+            }
+        }
+    }
+
+    /**
+     * Returns the element an element ends up at when the whole cube is
+     * turned a third around the diagonal through the fixed corner. Uses
+     * locations in space as in {@link ParityTable}, doubled and relative to
+     * the middle of the cube.
+     */
+    private static int turn(int element) {
+        int last = SIZE - 1;
+        int side = element / (SIZE * SIZE);
+        int row = (element / SIZE) % SIZE;
+        int column = element % SIZE;
+
+        // location, and the direction the side faces
+        int[] location;
+        int[] normal = new int[3];
+        switch (side) {
+        case Cube.TOP:
+            location = new int[] { column, 0, row };
+            normal[1] = -1;
+            break;
+        case Cube.LEFT:
+            location = new int[] { 0, row, column };
+            normal[0] = -1;
+            break;
+        case Cube.FRONT:
+            location = new int[] { column, row, last };
+            normal[2] = 1;
+            break;
+        case Cube.RIGHT:
+            location = new int[] { last, row, last - column };
+            normal[0] = 1;
+            break;
+        case Cube.BACK:
+            location = new int[] { last - column, row, 0 };
+            normal[2] = -1;
+            break;
+        case Cube.BOTTOM:
+            location = new int[] { column, last, last - row };
+            normal[1] = 1;
+            break;
+        default:
+            throw new Error("unknown side: " + side);
+        }
+
+        // (x, y, z) goes to (-z, x, -y), which keeps the fixed corner in
+        // place and takes the top side to the front side
+        int[] turned = new int[3];
+        int[] turnedNormal = { -normal[2], normal[0], -normal[1] };
+        int x = 2 * location[0] - last;
+        int y = 2 * location[1] - last;
+        int z = 2 * location[2] - last;
+        turned[0] = (-z + last) / 2;
+        turned[1] = (x + last) / 2;
+        turned[2] = (-y + last) / 2;
+
+        int turnedSide;
+        if (turnedNormal[0] != 0) {
+            turnedSide = turnedNormal[0] < 0 ? Cube.LEFT : Cube.RIGHT;
+        } else if (turnedNormal[1] != 0) {
+            turnedSide = turnedNormal[1] < 0 ? Cube.TOP : Cube.BOTTOM;
+        } else {
+            turnedSide = turnedNormal[2] < 0 ? Cube.BACK : Cube.FRONT;
+        }
+        return element(turnedSide, turned[0], turned[1], turned[2]);
+    }
+
+    /**
+     * Returns the element of a side at a location in space, as in
+     * {@link ParityTable}.
+     */
+    private static int element(int side, int x, int y, int z) {
+        int last = SIZE - 1;
+        int row;
+        int column;
+
+        switch (side) {
+        case Cube.TOP:
+            row = z;
+            column = x;
+            break;
+        case Cube.LEFT:
+            row = y;
+            column = z;
+            break;
+        case Cube.FRONT:
+            row = y;
+            column = x;
+            break;
+        case Cube.RIGHT:
+            row = y;
+            column = last - z;
+            break;
+        case Cube.BACK:
+            row = y;
+            column = last - x;
+            break;
+        case Cube.BOTTOM:
+            row = last - z;
+            column = x;
+            break;
+        default:
+            throw new Error("unknown side: " + side);
+        }
+        return side * SIZE * SIZE + row * SIZE + column;
+    }
+}
@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.PrintStream;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -54,22 +55,54 @@ public class Cube implements Serializable {
 
     public static final byte YELLOW = 5; // value for yellow element
 
+    // opposite of each side, and of the color each side starts out with
+    static final byte[] OPPOSITE = { BOTTOM, RIGHT, BACK, LEFT, FRONT, TOP };
+
     private int size; // size of this cube
 
     /*
-     * content of the cube. Data format is an array of sides, with all the
-     * elements of each side as an array of bytes.
+     * content of the cube. Data format is a single array of bytes, holding all
+     * the elements of each side after each other. Side s starts at offset
+     * s * size * size.
      * 
      * expanded view of cube (with starting colors, top = white):
      * 
      * W BOGR Y
      */
-    private final byte[][] data;
+    private final byte[] data;
+
+    /*
+     * 1 if an element of color c on side s is not the color side s has once
+     * the cube is solved, 0 if it is, at index s * SIDES + c. Never changes
+     * while twisting, so it is shared by copies of a cube.
+     */
+    private int[] misplacedColors;
+
+    // color of each side once the cube is solved. Never changes while
+    // twisting, so it is shared by copies of a cube
+    private byte[] solvedColors;
+
+    // number of elements not the color of their solved side, kept up to date
+    // by every twist
+    private int misplaced;
+
+    // XOR of the keys of all elements, see MoveTable. Kept up to date by
+    // every twist. An array, so a TwistKernel can update it in place
+    private final long[] fingerprint = new long[1];
+
+    // scratch space for a VectorTwister, allocated on first use
+    private transient byte[] scratch;
 
     private int twists; // number of twists this cube is a result of
 
     private int bound; // bound, useful for limiting the search depth
 
+    // state of the twists this cube is a result of, see SequenceTable
+    private int sequence = SequenceTable.START;
+
+    // number of twist sequences this cube stands for, see SequenceTable
+    private int weight = 1;
+
     /**
      * Creates a "solved" cube of a given size
      * 
@@ -79,18 +112,20 @@ public class Cube implements Serializable {
     public Cube(int size) {
         this.size = size;
 
-        // init data arrays
-        data = new byte[SIDES][size * size];
+        // init data array
+        data = new byte[SIDES * size * size];
 
         twists = 0;
         bound = 0;
 
         // init state. side 0 should be white, side 1 is yellow, etc.
         for (byte side = 0; side < SIDES; side++) {
+            int offset = offset(side);
             for (int element = 0; element < size * size; element++) {
-                data[side][element] = side;
+                data[offset + element] = side;
             }
         }
+        recount();
     }
 
     /**
@@ -108,29 +143,23 @@ public class Cube implements Serializable {
         this(size);
 
         Random random = new Random(seed);
+        MoveTable moves = MoveTable.get(size);
+        byte[] twisted = new byte[data.length];
 
         // do some random twists
         for (int i = 0; i < twists; i++) {
-            int axis = random.nextInt(3);
+            Axis axis = Axis.values()[random.nextInt(3)];
             // select a row ( 0 < row < size )
             int row = random.nextInt(size - 1) + 1;
             boolean direction = random.nextBoolean();
 
-            switch (axis) {
-            case 0:
-                twistX(row, direction);
-                break;
-            case 1:
-                twistY(row, direction);
-                break;
-            case 2:
-                twistZ(row, direction);
-                break;
-            }
+            moves.apply(moves.move(axis, row, direction), data, twisted);
+            System.arraycopy(twisted, 0, data, 0, data.length);
         }
 
         // set twists back to 0
         this.twists = 0;
+        recount();
 
         // just in case
         checkIfConsistent();
@@ -147,17 +176,15 @@ public class Cube implements Serializable {
         this.size = original.size;
         this.twists = original.twists;
         this.bound = original.bound;
-
-        // init data arrays
-        data = new byte[SIDES][size * size];
+        this.sequence = original.sequence;
+        this.weight = original.weight;
 
         // init state.
-        for (byte i = 0; i < SIDES; i++) {
-            for (int j = 0; j < size * size; j++) {
-                data[i][j] = original.data[i][j];
-            }
-        }
-
+        data = original.data.clone();
+        misplacedColors = original.misplacedColors;
+        solvedColors = original.solvedColors;
+        misplaced = original.misplaced;
+        fingerprint[0] = original.fingerprint[0];
     }
 
     public Cube(String fileName) throws Exception {
@@ -179,8 +206,8 @@ public class Cube implements Serializable {
                                 + sizeString);
             }
 
-            // init data arrays
-            data = new byte[SIDES][size * size];
+            // init data array
+            data = new byte[SIDES * size * size];
 
             for (int i = 0; i < SIDES; i++) {
                 for (int x = 0; x < size; x++) {
@@ -195,7 +222,7 @@ public class Cube implements Serializable {
                         byte color = parseElement(line.charAt(y));
                         int elementIndex = element(x, y);
 
-                        data[i][elementIndex] = color;
+                        data[offset(i) + elementIndex] = color;
                     }
 
                 }
@@ -205,6 +232,7 @@ public class Cube implements Serializable {
                 reader.close();
             }
         }
+        recount();
     }
 
     /**
@@ -217,13 +245,69 @@ public class Cube implements Serializable {
         target.size = size;
         target.twists = twists;
         target.bound = bound;
+        target.sequence = sequence;
+        target.weight = weight;
 
         // init state.
-        for (byte i = 0; i < SIDES; i++) {
-            System.arraycopy(data[i], 0, target.data[i], 0, data[i].length);
+        System.arraycopy(data, 0, target.data, 0, data.length);
+        target.misplacedColors = misplacedColors;
+        target.solvedColors = solvedColors;
+        target.misplaced = misplaced;
+        target.fingerprint[0] = fingerprint[0];
+    }
+
+    /**
+     * Packs this cube into its compact form.
+     * 
+     * @return the packed form of this cube.
+     */
+    public PackedCube pack() {
+        PackedCube result = new PackedCube(size, twists, bound, sequence,
+                weight);
+        pack(result.words, 0);
+        return result;
+    }
+
+    /**
+     * Packs the elements of this cube into an array, in the words of its
+     * compact form, without creating a new object.
+     * 
+     * @param words
+     *            array to store the words in
+     * @param offset
+     *            position in the array of the first word
+     */
+    void pack(long[] words, int offset) {
+        Arrays.fill(words, offset, offset + PackedCube.words(size), 0);
+        for (int i = 0; i < data.length; i++) {
+            words[offset + i / PackedCube.ELEMENTS_PER_WORD] |= (long) data[i] << (i
+                    % PackedCube.ELEMENTS_PER_WORD * PackedCube.BITS);
         }
     }
 
+    /**
+     * Copy contents of a packed cube into this cube.
+     * 
+     * @param packed
+     *            packed cube of the same size as this cube.
+     */
+    public void unpack(PackedCube packed) {
+        if (packed.size != size) {
+            throw new Error("cannot unpack cube of size " + packed.size
+                    + " into cube of size " + size);
+        }
+        twists = packed.twists;
+        bound = packed.bound;
+        sequence = packed.sequence;
+        weight = packed.weight;
+
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ((packed.words[i / PackedCube.ELEMENTS_PER_WORD] >>> (i
+                    % PackedCube.ELEMENTS_PER_WORD * PackedCube.BITS)) & PackedCube.ELEMENT_MASK);
+        }
+        recount();
+    }
+
     /**
      * Returns the size of this cube. Default rubik's cube is of size 3
      * 
@@ -264,40 +348,202 @@ public class Cube implements Serializable {
     }
 
     /**
-     * Returns if this cube is solved or not.
+     * Returns the state of the twists this cube is a result of in the
+     * {@link SequenceTable} of its size. Twists not tried in this state need
+     * not be searched.
+     * 
+     * @return the sequence state of this cube
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the number of twist sequences this cube stands for: its
+     * solutions count this many times, see {@link SequenceTable}.
+     * 
+     * @return the weight of this cube
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Returns the color of an element. Elements are numbered side by side, as
+     * in {@link MoveTable}.
+     * 
+     * @param element
+     *            number of the element
+     * @return the color of the element
+     */
+    byte getColor(int element) {
+        return data[element];
+    }
+
+    /**
+     * Returns the fingerprint of this cube: a 64 bit hash of its elements,
+     * kept up to date by twisting. Equal cubes have equal fingerprints, and
+     * different cubes almost never do.
+     * 
+     * @return the fingerprint of this cube
+     */
+    public long getFingerprint() {
+        return fingerprint[0];
+    }
+
+    /**
+     * Returns if this cube has the same elements as the given object. The
+     * number of twists and the bound are not compared. The fingerprints are
+     * compared first, so only cubes which are very likely equal have their
+     * elements compared.
+     * 
+     * @param object
+     *            object to compare with
+     * @return true if object is a cube with the same elements
+     */
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (!(object instanceof Cube)) {
+            return false;
+        }
+        Cube other = (Cube) object;
+
+        return size == other.size && fingerprint[0] == other.fingerprint[0]
+                && Arrays.equals(data, other.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (fingerprint[0] ^ (fingerprint[0] >>> 32));
+    }
+
+    /**
+     * Returns if this cube is solved or not. Uses the number of misplaced
+     * elements kept up to date by twisting, so does not need to look at the
+     * elements.
      * 
      * @return true if solved, false if not
      */
     public boolean isSolved() {
-        for (byte i = 0; i < SIDES; i++) {
-            // all elements must be the same color as first element
-            byte color = data[i][0];
-            for (int j = 1; j < size * size; j++) {
-                if (data[i][j] != color) {
-                    return false;
+        return misplaced == 0;
+    }
+
+    /**
+     * Returns the solved cube with the same colors as this one, the cube
+     * {@link #isSolved()} looks for.
+     * 
+     * @return a new solved cube, not twisted
+     */
+    public Cube solved() {
+        Cube result = new Cube(this);
+        int elements = size * size;
+        for (int i = 0; i < data.length; i++) {
+            for (byte color = 0; color < SIDES; color++) {
+                if (misplacedColors[(i / elements) * SIDES + color] == 0) {
+                    result.data[i] = color;
                 }
             }
         }
-        return true;
+        result.twists = 0;
+        result.sequence = SequenceTable.START;
+        result.weight = 1;
+        result.recount();
+        return result;
+    }
+
+    /**
+     * Returns a lower bound on the number of twists needed to solve this
+     * cube. A twist only changes whether an element is misplaced for the
+     * elements it moves from one side to another, so each twist puts at most
+     * {@link MoveTable#getMostMovedBetweenSides()} misplaced elements in
+     * place.
+     * 
+     * @param moves
+     *            precomputed twists for cubes of this size
+     * @return a lower bound on the distance to the solved cube
+     */
+    public int lowerBound(MoveTable moves) {
+        int most = moves.getMostMovedBetweenSides();
+        return (misplaced + most - 1) / most;
     }
 
     /**
-     * Twists this cube in each way possible.
+     * Same as {@link #lowerBound(MoveTable)}, but a 4x4x4 cube also looks up
+     * its centers in the {@link CenterDatabase}.
+     * 
+     * @param moves
+     *            precomputed twists for cubes of this size
+     * @param centers
+     *            the center database, or null to only count the misplaced
+     *            elements
+     * @return a lower bound on the distance to the solved cube
+     */
+    public int lowerBound(MoveTable moves, CenterDatabase centers) {
+        int result = lowerBound(moves);
+        if (centers != null && size == CenterDatabase.SIZE && misplaced > 0) {
+            result = Math.max(result, centers.distance(this));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the parity of the number of twists of any sequence solving this
+     * cube, see {@link ParityTable}. Looks at all elements.
+     * 
+     * @return 0 if this cube can only be solved in an even number of twists,
+     *         1 if only in an odd number
+     */
+    public int getParity() {
+        return ParityTable.get(size).parity(this);
+    }
+
+    /**
+     * Returns if this cube would be solved by a twist, without twisting it.
+     * 
+     * @param moves
+     *            precomputed twists for cubes of this size
+     * @param move
+     *            number of the twist, see {@link MoveTable}
+     * @return true if solved after the twist, false if not
+     */
+    public boolean isSolvedAfter(MoveTable moves, int move) {
+        if (misplaced > moves.getMovedBetweenSides(move)) {
+            // twist cannot put all misplaced elements in place
+            return false;
+        }
+        return misplaced + misplacedChange(moves, move) == 0;
+    }
+
+    /**
+     * Twists this cube in each way worth trying. Twists which undo the
+     * previous twist, or repeat a run of twists on the same axis in another
+     * order, are left out, see {@link SequenceTable}.
      * 
      * @param cache
      *            cache used to get new cube objects from.
      * 
-     * @return all the possible children of this cube.
+     * @return all the children of this cube worth searching.
      */
     public Cube[] generateChildren(CubeCache cache) {
-        // number of possible twists is constant for each size cube
-        Cube[] result = new Cube[6 * (size - 1)];
-        int next = 0;
-
-        for (Axis axis : Axis.values()) {
-            for (int row = 1; row < size; row++) {
-                result[next++] = twist(axis, row, true, cache);
-                result[next++] = twist(axis, row, false, cache);
+        MoveTable moves = MoveTable.get(size);
+        SequenceTable sequences = SequenceTable.get(size);
+
+        int children = 0;
+        for (int move = 0; move < moves.getMoves(); move++) {
+            if (sequences.next(sequence, move) >= 0) {
+                children++;
+            }
+        }
+
+        Cube[] result = new Cube[children];
+        children = 0;
+        for (int move = 0; move < moves.getMoves(); move++) {
+            if (sequences.next(sequence, move) >= 0) {
+                result[children] = twist(moves, move, cache);
+                children++;
             }
         }
 
@@ -319,36 +565,76 @@ public class Cube implements Serializable {
      * @return the resulting cube after twisting
      */
     public Cube twist(Axis axis, int row, boolean direction, CubeCache cache) {
-        if (row <= 0) {
-            throw new Error("first row to twist must be greater then zero");
-        }
+        MoveTable moves = MoveTable.get(size);
 
-        if (row >= size) {
-            throw new Error(
-                    "first row to twist must be smaller then size of cube: "
-                            + size);
-        }
+        return twist(moves, moves.move(axis, row, direction), cache);
+    }
 
+    /**
+     * Twist the cube, returning the result as a new cube. The new cube
+     * remembers the twist in its sequence state and weight. A twist the search
+     * would not try starts a new sequence.
+     * 
+     * @param moves
+     *            precomputed twists for cubes of this size
+     * @param move
+     *            number of the twist, see {@link MoveTable}
+     * @param cache
+     *            cache used to get new cube objects from.
+     * 
+     * @return the resulting cube after twisting
+     */
+    public Cube twist(MoveTable moves, int move, CubeCache cache) {
         Cube result = cache.get();
-        this.copyTo(result);
-
-        switch (axis) {
-        case X:
-            result.twistX(row, direction);
-            break;
-        case Y:
-            result.twistY(row, direction);
-            break;
-        case Z:
-            result.twistZ(row, direction);
-            break;
-        default:
-            // should not happen, but you never know :)
-            throw new Error("unknown axis in twist");
+        result.size = size;
+        result.twists = twists + 1;
+        result.bound = bound;
+
+        SequenceTable sequences = SequenceTable.get(size);
+        result.sequence = sequences.next(sequence, move);
+        if (result.sequence >= 0) {
+            result.weight = weight * sequences.weight(sequence, move);
+        } else {
+            result.sequence = SequenceTable.START;
+            result.weight = weight;
         }
+
+        result.misplacedColors = misplacedColors;
+        result.misplaced = misplaced + misplacedChange(moves, move);
+        result.fingerprint[0] = fingerprint[0] ^ fingerprintChange(moves, move);
+
+        moves.apply(move, data, result.data);
+
         return result;
     }
 
+    /**
+     * Twist this cube in place.
+     * 
+     * @param moves
+     *            precomputed twists for cubes of this size
+     * @param move
+     *            number of the twist, see {@link MoveTable}
+     */
+    public void apply(MoveTable moves, int move) {
+        twistInPlace(moves, move);
+        twists++;
+    }
+
+    /**
+     * Undo a twist previously applied to this cube with
+     * {@link #apply(MoveTable, int)}.
+     * 
+     * @param moves
+     *            precomputed twists for cubes of this size
+     * @param move
+     *            number of the twist to undo
+     */
+    public void undo(MoveTable moves, int move) {
+        twistInPlace(moves, moves.inverse(move));
+        twists--;
+    }
+
     /**
      * Print cube.
      * 
@@ -390,200 +676,288 @@ public class Cube implements Serializable {
     // *** Only private functions ahead. No need to understand those ;) ***\\
 
     /**
-     * Computes the "inverse" of a row or column (last = first, etc)
-     * 
-     * @param value
-     *            original value
-     * @return inverse of value (last = first, etc)
+     * Twists the elements of this cube in place, updating the number of
+     * misplaced elements and the fingerprint along the way. Uses the
+     * generated kernel for this size if there is one.
      */
-    private int inverse(int value) {
-        return size - 1 - value;
+    private void twistInPlace(MoveTable moves, int move) {
+        TwistKernel kernel = moves.kernel;
+        if (kernel != null) {
+            misplaced += kernel.twist(move, data, misplacedColors, moves.keys,
+                    fingerprint);
+            return;
+        }
+
+        VectorTwister vector = moves.vector;
+        if (vector != null) {
+            if (scratch == null) {
+                scratch = new byte[vector.getScratchSize()];
+            }
+            misplaced += misplacedChange(moves, move);
+            fingerprint[0] ^= fingerprintChange(moves, move);
+            vector.apply(move, data, scratch);
+            return;
+        }
+
+        byte[] data = this.data;
+        int[] misplacedColors = this.misplacedColors;
+        long[] keys = moves.keys;
+        int shift = MoveTable.KEY_SHIFT;
+
+        int misplacedChange = 0;
+        long fingerprintChange = 0;
+
+        int[] rings = moves.rings;
+        int end = moves.ringStart[move + 1];
+        for (int i = moves.ringStart[move]; i < end; i += 8) {
+            int elementA = rings[i];
+            int elementB = rings[i + 1];
+            int elementC = rings[i + 2];
+            int elementD = rings[i + 3];
+
+            byte a = data[elementA];
+            byte b = data[elementB];
+            byte c = data[elementC];
+            byte d = data[elementD];
+
+            data[elementA] = b;
+            data[elementB] = c;
+            data[elementC] = d;
+            data[elementD] = a;
+
+            int sideA = rings[i + 4];
+            int sideB = rings[i + 5];
+            int sideC = rings[i + 6];
+            int sideD = rings[i + 7];
+
+            misplacedChange += misplacedColors[sideA + b]
+                    - misplacedColors[sideB + b] + misplacedColors[sideB + c]
+                    - misplacedColors[sideC + c] + misplacedColors[sideC + d]
+                    - misplacedColors[sideD + d] + misplacedColors[sideD + a]
+                    - misplacedColors[sideA + a];
+
+            fingerprintChange ^= keys[(elementA << shift) + a]
+                    ^ keys[(elementA << shift) + b]
+                    ^ keys[(elementB << shift) + b]
+                    ^ keys[(elementB << shift) + c]
+                    ^ keys[(elementC << shift) + c]
+                    ^ keys[(elementC << shift) + d]
+                    ^ keys[(elementD << shift) + d]
+                    ^ keys[(elementD << shift) + a];
+        }
+
+        int[] cycles = moves.cycles;
+        end = moves.cycleStart[move + 1];
+        for (int i = moves.cycleStart[move]; i < end; i += 4) {
+            int elementA = cycles[i];
+            int elementB = cycles[i + 1];
+            int elementC = cycles[i + 2];
+            int elementD = cycles[i + 3];
+
+            byte a = data[elementA];
+            byte b = data[elementB];
+            byte c = data[elementC];
+            byte d = data[elementD];
+
+            data[elementA] = b;
+            data[elementB] = c;
+            data[elementC] = d;
+            data[elementD] = a;
+
+            fingerprintChange ^= keys[(elementA << shift) + a]
+                    ^ keys[(elementA << shift) + b]
+                    ^ keys[(elementB << shift) + b]
+                    ^ keys[(elementB << shift) + c]
+                    ^ keys[(elementC << shift) + c]
+                    ^ keys[(elementC << shift) + d]
+                    ^ keys[(elementD << shift) + d]
+                    ^ keys[(elementD << shift) + a];
+        }
+
+        misplaced += misplacedChange;
+        fingerprint[0] ^= fingerprintChange;
     }
 
     /**
-     * Computes the position into the data array for each side from the row and
-     * column
-     * 
-     * @param row
-     *            row of element
-     * @param column
-     *            column of element
-     * @return position in array of element
+     * Computes the change in the number of misplaced elements a twist would
+     * cause, without twisting.
      */
-    private int element(int row, int column) {
-        return (row * size) + column;
+    private int misplacedChange(MoveTable moves, int move) {
+        int result = 0;
+
+        int[] rings = moves.rings;
+        int end = moves.ringStart[move + 1];
+        for (int i = moves.ringStart[move]; i < end; i += 8) {
+            byte a = data[rings[i]];
+            byte b = data[rings[i + 1]];
+            byte c = data[rings[i + 2]];
+            byte d = data[rings[i + 3]];
+
+            int sideA = rings[i + 4];
+            int sideB = rings[i + 5];
+            int sideC = rings[i + 6];
+            int sideD = rings[i + 7];
+
+            result += misplacedColors[sideA + b] - misplacedColors[sideB + b]
+                    + misplacedColors[sideB + c] - misplacedColors[sideC + c]
+                    + misplacedColors[sideC + d] - misplacedColors[sideD + d]
+                    + misplacedColors[sideD + a] - misplacedColors[sideA + a];
+        }
+        return result;
     }
 
     /**
-     * rotate side of a cube (side effect of twisting)
-     * 
-     * @param side
-     *            side to turn
-     * @param direction
-     *            direction to turn side in (positive or negative)
+     * Computes the change (XOR) in the fingerprint a twist would cause,
+     * without twisting.
      */
-    private void rotate(int side, boolean direction) {
-        byte[] result = new byte[size * size];
+    private long fingerprintChange(MoveTable moves, int move) {
+        return cyclesChange(moves, moves.rings, moves.ringStart[move],
+                moves.ringStart[move + 1], 8)
+                ^ cyclesChange(moves, moves.cycles, moves.cycleStart[move],
+                        moves.cycleStart[move + 1], 4);
+    }
 
-        if (direction) {
-            for (int row = 0; row < size; row++) {
-                int toColumn = inverse(row);
-                for (int column = 0; column < size; column++) {
-                    int toRow = column;
-                    // System.out.println(row + "," + column + " <= " + toRow
-                    // + "," + toColumn);
-                    result[(toRow * size) + toColumn] = data[side][(row * size)
-                            + column];
-                }
-            }
-        } else {
-            for (int row = 0; row < size; row++) {
-                int fromColumn = inverse(row);
-                for (int column = 0; column < size; column++) {
-                    int fromRow = column;
-                    // System.out.println(row + "," + column + " <= " + fromRow
-                    // + "," + fromColumn);
-                    result[(row * size) + column] = data[side][(fromRow * size)
-                            + fromColumn];
-                }
+    /**
+     * Computes the change in the fingerprint caused by cycling the elements
+     * of the given cycles, each cycle starting "stride" entries after the
+     * previous one.
+     */
+    private long cyclesChange(MoveTable moves, int[] cycles, int start,
+            int end, int stride) {
+        long[] keys = moves.keys;
+        int shift = MoveTable.KEY_SHIFT;
+        long result = 0;
+
+        for (int i = start; i < end; i += stride) {
+            for (int j = 0; j < 4; j++) {
+                int element = cycles[i + j];
+                int from = cycles[i + (j + 1) % 4];
+
+                result ^= keys[(element << shift) + data[element]]
+                        ^ keys[(element << shift) + data[from]];
             }
         }
-
-        System.arraycopy(result, 0, data[side], 0, result.length);
+        return result;
     }
 
     /**
-     * Twist cube on the X-axis.
-     * 
-     * @param firstRow
-     *            first row which to turn ( 0 < row < size )
-     * @param direction
-     *            direction to turn, either positive or negative
+     * Determines the color of each side of the solved cube, and counts the
+     * elements not of that color. No twist ever moves the corner between the
+     * top, left and front side, so the colors of this corner are the colors
+     * of these sides once the cube is solved. The other sides get the colors
+     * opposite to those: the colors which never share a corner with them.
+     * Also computes the fingerprint from scratch.
      */
-    private void twistX(int firstRow, boolean direction) {
-        // System.out.println("Twisting over X axis, first row " + firstRow
-        // + " in positive direction: " + direction);
-
-        int firstElement = firstRow * size;
-
-        // warning: fiddling with cube content ahead :)
-        for (int element = firstElement; element < size * size; element++) {
-
-            if (direction) {
-                byte tmp = data[BACK][element];
-                data[BACK][element] = data[RIGHT][element];
-                data[RIGHT][element] = data[FRONT][element];
-                data[FRONT][element] = data[LEFT][element];
-                data[LEFT][element] = tmp;
-            } else {
-                byte tmp = data[LEFT][element];
-                data[LEFT][element] = data[FRONT][element];
-                data[FRONT][element] = data[RIGHT][element];
-                data[RIGHT][element] = data[BACK][element];
-                data[BACK][element] = tmp;
+    private void recount() {
+        int elements = size * size;
+
+        byte[] solved = solvedColors();
+        solvedColors = solved;
+
+        misplacedColors = new int[SIDES * SIDES];
+        for (int side = 0; side < SIDES; side++) {
+            for (int color = 0; color < SIDES; color++) {
+                misplacedColors[side * SIDES + color] = color == solved[side] ? 0
+                        : 1;
             }
         }
 
-        rotate(BOTTOM, direction);
+        MoveTable moves = MoveTable.get(size);
+        if (moves.vector != null) {
+            byte[] solvedData = new byte[data.length];
+            for (int i = 0; i < data.length; i++) {
+                solvedData[i] = solved[i / elements];
+            }
+            misplaced = moves.vector.misplaced(data, solvedData);
+        } else {
+            misplaced = 0;
+            for (int i = 0; i < data.length; i++) {
+                misplaced += misplacedColors[(i / elements) * SIDES + data[i]];
+            }
+        }
 
-        // record this twist
-        twists++;
+        long[] keys = moves.keys;
+        long result = 0;
+        for (int i = 0; i < data.length; i++) {
+            result ^= keys[(i << MoveTable.KEY_SHIFT) + data[i]];
+        }
+        fingerprint[0] = result;
     }
 
     /**
-     * Twist cube on the Y-axis.
-     * 
-     * @param firstColumn
-     *            first column which to turn ( 0 < column < size )
-     * @param direction
-     *            direction to turn, either positive or negative
+     * Determines the color of each side once the cube is solved, see
+     * recount(). Cubes read from a file may have any colors on any side, as
+     * long as each color is opposite to a single other one.
      */
-    private void twistY(int firstColumn, boolean direction) {
-        // System.out.println("Twisting over Y axis, first column " +
-        // firstColumn
-        // + " in positive direction: " + direction);
+    private byte[] solvedColors() {
+        byte[] result = new byte[SIDES];
+        if (size == 1) {
+            // no twist moves anything
+            for (int side = 0; side < SIDES; side++) {
+                result[side] = data[offset(side)];
+            }
+            return result;
+        }
 
-        for (int row = 0; row < size; row++) {
-            for (int column = firstColumn; column < size; column++) {
-                int element = (row * size) + column;
-
-                // back is "mirrored"
-                int backRow = inverse(row);
-                int backColumn = inverse(column);
-                int backElement = (backRow * size) + backColumn;
-
-                if (direction) {
-                    byte tmp = data[TOP][element];
-                    data[TOP][element] = data[FRONT][element];
-                    data[FRONT][element] = data[BOTTOM][element];
-                    data[BOTTOM][element] = data[BACK][backElement];
-                    data[BACK][backElement] = tmp;
-                } else {
-                    byte tmp = data[TOP][element];
-                    data[TOP][element] = data[BACK][backElement];
-                    data[BACK][backElement] = data[BOTTOM][element];
-                    data[BOTTOM][element] = data[FRONT][element];
-                    data[FRONT][element] = tmp;
+        // colors sharing a corner with each color, a bit for each color
+        int[] neighbours = new int[SIDES];
+        for (int[] corner : ParityTable.get(size).cornerElements) {
+            for (int element : corner) {
+                for (int other : corner) {
+                    neighbours[data[element]] |= 1 << data[other];
                 }
             }
         }
-        rotate(RIGHT, direction);
 
-        // record this twist
-        twists++;
+        result[TOP] = data[offset(TOP) + element(size - 1, 0)];
+        result[LEFT] = data[offset(LEFT) + element(0, size - 1)];
+        result[FRONT] = data[offset(FRONT) + element(0, 0)];
+        for (int side : new int[] { TOP, LEFT, FRONT }) {
+            int opposite = ~neighbours[result[side]] & ((1 << SIDES) - 1);
+            if (Integer.bitCount(opposite) != 1) {
+                throw new Error("color " + result[side]
+                        + " is not opposite to a single other color");
+            }
+            result[OPPOSITE[side]] = (byte) Integer
+                    .numberOfTrailingZeros(opposite);
+        }
+        return result;
+    }
 
+    /**
+     * Returns the color of each side once the cube is solved, by side. Not
+     * to be changed.
+     *
+     * @return the solved color of each side
+     */
+    byte[] getSolvedColors() {
+        return solvedColors;
     }
 
     /**
-     * Twist cube on the Z-axis.
+     * Computes the position into the data array for each side from the row and
+     * column
      * 
-     * @param firstRow
-     *            first row which to turn ( 0 < row < size )
-     * @param direction
-     *            direction to turn, either positive or negative
+     * @param row
+     *            row of element
+     * @param column
+     *            column of element
+     * @return position in array of element
      */
-    private void twistZ(int firstRow, boolean direction) {
-        // System.out.println("Twisting over Z axis, first row " + firstRow
-        // + " in positive direction: " + direction);
-
-        for (int row = firstRow; row < size; row++) {
-            for (int column = 0; column < size; column++) {
-                int topRow = inverse(row);
-                int topColumn = column;
-                int topElement = element(topRow, topColumn);
-
-                int rightRow = column;
-                int rightColumn = row;
-                int rightElement = element(rightRow, rightColumn);
-
-                int bottomRow = row;
-                int bottomColumn = inverse(column);
-                int bottomElement = element(bottomRow, bottomColumn);
-
-                int leftRow = inverse(column);
-                int leftColumn = inverse(row);
-                int leftElement = element(leftRow, leftColumn);
-
-                if (direction) {
-                    byte tmp = data[TOP][topElement];
-                    data[TOP][topElement] = data[LEFT][leftElement];
-                    data[LEFT][leftElement] = data[BOTTOM][bottomElement];
-                    data[BOTTOM][bottomElement] = data[RIGHT][rightElement];
-                    data[RIGHT][rightElement] = tmp;
-                } else {
-                    byte tmp = data[TOP][topElement];
-                    data[TOP][topElement] = data[RIGHT][rightElement];
-                    data[RIGHT][rightElement] = data[BOTTOM][bottomElement];
-                    data[BOTTOM][bottomElement] = data[LEFT][leftElement];
-                    data[LEFT][leftElement] = tmp;
-                }
-            }
-        }
-
-        rotate(BACK, !direction);
+    private int element(int row, int column) {
+        return (row * size) + column;
+    }
 
-        // record this twist
-        twists++;
+    /**
+     * Computes the position into the data array of the first element of a
+     * side
+     * 
+     * @param side
+     *            side of the cube
+     * @return position in array of first element of the side
+     */
+    private int offset(int side) {
+        return side * size * size;
     }
 
     /**
@@ -596,7 +970,7 @@ public class Cube implements Serializable {
 
         for (int side = 0; side < SIDES; side++) {
             for (int element = 0; element < size * size; element++) {
-                int color = data[side][element];
+                int color = data[offset(side) + element];
 
                 counts[color]++;
             }
@@ -638,7 +1012,7 @@ public class Cube implements Serializable {
         // System.err.println("printing side = " + side + " row = " + row
         // + " column = " + column);
 
-        byte color = data[side][(row * size) + column];
+        byte color = data[offset(side) + (row * size) + column];
 
         switch (color) {
         case WHITE:
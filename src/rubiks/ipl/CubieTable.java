@@ -0,0 +1,720 @@
+package rubiks.ipl;
+
+import java.util.HashMap;
+
+/**
+ * Precomputed twists for the "cubie" model of a 3x3x3 cube, see
+ * {@link CubieCube}. Instead of 54 elements, a cube is described by a few
+ * coordinates: the arrangement of the centers, the permutation and
+ * orientation of the corners, and the positions and orientations of three
+ * groups of four edges. For each coordinate and each twist, a table holds the
+ * coordinate after the twist, so twisting a cube is a handful of lookups.
+ *
+ * The pieces are found from the layout of the elements, and the tables are
+ * derived from the {@link MoveTable} of size 3, so twists have the same
+ * numbers in both models.
+ *
+ * There is only one table, shared by all threads.
+ *
+ */
+public final class CubieTable {
+
+    public static final int SIZE = 3; // only size this model works for
+
+    static final int MOVES = 6 * (SIZE - 1); // fits in the bits of a char
+
+    static final int CORNERS = 7; // corners which move, the eighth never does
+
+    static final int EDGES = 12;
+
+    static final int EDGE_GROUPS = 3;
+
+    static final int GROUP_EDGES = EDGES / EDGE_GROUPS;
+
+    static final int CENTER_STATES = 24; // ways to turn a cube as a whole
+
+    static final int CORNER_PERMUTATIONS = 5040; // 7!
+
+    static final int CORNER_ORIENTATIONS = 729; // 3^6, last corner follows
+
+    static final int EDGE_STATES = 190080; // 12 * 11 * 10 * 9 * 2^4
+
+    private static CubieTable table;
+
+    // elements of each corner position. The element on the top or bottom
+    // side is first, the others follow clockwise. The fixed corner is last.
+    private final int[][] cornerElements = new int[CORNERS + 1][];
+
+    // elements of each edge position, lowest side first
+    private final int[][] edgeElements = new int[EDGES][];
+
+    // element of the center of each side
+    private final int[] centerElements = new int[Cube.SIDES];
+
+    // for each twist and position, where the piece at the position goes, and
+    // by how much it is turned
+    private final int[] cornerTo = new int[MOVES * CORNERS];
+
+    private final int[] cornerTwist = new int[MOVES * CORNERS];
+
+    private final int[] edgeTo = new int[MOVES * EDGES];
+
+    private final int[] edgeFlip = new int[MOVES * EDGES];
+
+    private final int[] centerTo = new int[MOVES * Cube.SIDES];
+
+    // position of each center piece, for each center state
+    private final int[][] centerStates = new int[CENTER_STATES][];
+
+    private final HashMap<Integer, Integer> centerStateIndex = new HashMap<Integer, Integer>();
+
+    /*
+     * coordinate after each twist, at index coordinate * MOVES + move
+     */
+    final int[] centerMoves = new int[CENTER_STATES * MOVES];
+
+    final int[] cornerPermutationMoves = new int[CORNER_PERMUTATIONS * MOVES];
+
+    final int[] cornerOrientationMoves = new int[CORNER_ORIENTATIONS * MOVES];
+
+    final int[] edgeMoves = new int[EDGE_STATES * MOVES];
+
+    // center state of the inverse of each center state
+    final int[] centerInverses = new int[CENTER_STATES];
+
+    /*
+     * Edges at each position, packed in a long: the edge at a position in 4
+     * bits at 4 * position, and whether it is flipped in a bit at FLIPS +
+     * position, see CubieCube.
+     */
+    static final int FLIPS = 4 * EDGES;
+
+    // bits of the packed edges a twist leaves alone
+    final long[] keptEdges = new long[MOVES];
+
+    /*
+     * edges a twist moves, for the twist at index movedStart[move] to
+     * movedStart[move + 1]: position moved from, position moved to, and 1 if
+     * the edge is flipped
+     */
+    final int[] movedStart = new int[MOVES + 1];
+
+    final int[] movedFrom = new int[MOVES * EDGES];
+
+    final int[] movedTo = new int[MOVES * EDGES];
+
+    final int[] movedFlip = new int[MOVES * EDGES];
+
+    /*
+     * rank of the edges at the four positions of a group, by these edges
+     * packed in 16 bits, see rank(int[], int)
+     */
+    final char[] groupRanks = new char[1 << (4 * GROUP_EDGES)];
+
+    // edge coordinate of each group once the cube is solved
+    final int[] solvedEdges = new int[EDGE_GROUPS];
+
+    /*
+     * for each value of a coordinate, a bit for each twist after which the
+     * coordinate is solved. ANDing these for all coordinates of a cube gives
+     * the twists which solve the cube, all twists at once.
+     */
+    final char[] centerSolvingMoves = new char[CENTER_STATES];
+
+    final char[] cornerPermutationSolvingMoves = new char[CORNER_PERMUTATIONS];
+
+    final char[] cornerOrientationSolvingMoves = new char[CORNER_ORIENTATIONS];
+
+    final char[][] edgeSolvingMoves = new char[EDGE_GROUPS][EDGE_STATES];
+
+    /**
+     * Returns the (shared) table, building it on first use.
+     *
+     * @return the cubie table
+     */
+    public static synchronized CubieTable get() {
+        if (table == null) {
+            table = new CubieTable();
+        }
+        return table;
+    }
+
+    private CubieTable() {
+        MoveTable moves = MoveTable.get(SIZE);
+        int elements = Cube.SIDES * SIZE * SIZE;
+        int[] from = new int[elements];
+        byte[] labels = new byte[elements];
+        byte[] twisted = new byte[elements];
+
+        findPieces(moves);
+
+        for (int move = 0; move < MOVES; move++) {
+            // every element of a 3x3x3 cube fits in a byte
+            for (int i = 0; i < elements; i++) {
+                labels[i] = (byte) i;
+            }
+            moves.apply(move, labels, twisted);
+            for (int i = 0; i < elements; i++) {
+                from[i] = twisted[i];
+            }
+
+            followPieces(move, from, cornerElements, CORNERS, cornerTo,
+                    cornerTwist);
+            followPieces(move, from, edgeElements, EDGES, edgeTo, edgeFlip);
+            for (int side = 0; side < Cube.SIDES; side++) {
+                centerTo[move * Cube.SIDES + side(from[centerElements[side]])] = side;
+            }
+
+            int twist = 0;
+            for (int corner = 0; corner < CORNERS; corner++) {
+                twist += cornerTwist[move * CORNERS + corner];
+            }
+            if (twist % 3 != 0) {
+                throw new Error("twist " + move
+                        + " changes the total orientation of the corners");
+            }
+        }
+
+        compileCenters();
+        for (int state = 0; state < CENTER_STATES; state++) {
+            int[] inverse = new int[Cube.SIDES];
+            for (int center = 0; center < Cube.SIDES; center++) {
+                inverse[centerStates[state][center]] = center;
+            }
+            centerInverses[state] = centerStateIndex.get(pack(inverse));
+        }
+        compileCorners();
+        compileEdges();
+        compilePackedEdges();
+
+        int[] positions = new int[GROUP_EDGES];
+        for (int group = 0; group < EDGE_GROUPS; group++) {
+            for (int i = 0; i < GROUP_EDGES; i++) {
+                positions[i] = group * GROUP_EDGES + i;
+            }
+            solvedEdges[group] = rank(positions, EDGES) << GROUP_EDGES;
+        }
+
+        solvingMoves(centerMoves, 0, centerSolvingMoves);
+        solvingMoves(cornerPermutationMoves, 0, cornerPermutationSolvingMoves);
+        solvingMoves(cornerOrientationMoves, 0, cornerOrientationSolvingMoves);
+        for (int group = 0; group < EDGE_GROUPS; group++) {
+            solvingMoves(edgeMoves, solvedEdges[group], edgeSolvingMoves[group]);
+        }
+    }
+
+    /**
+     * Converts a cube to its center state, corner and edge coordinates.
+     *
+     * @param cube
+     *            cube of size 3
+     * @param edges
+     *            array to store the coordinate of each edge group in
+     * @return the center state, corner permutation and corner orientation
+     */
+    int[] coordinates(Cube cube, int[] edges) {
+        if (cube.getSize() != SIZE) {
+            throw new Error("cannot describe a cube of size " + cube.getSize()
+                    + " with cubies");
+        }
+
+        byte[] homeSide = ParityTable.get(SIZE).homeSides(cube);
+
+        int[] centerPositions = new int[Cube.SIDES];
+        for (int side = 0; side < Cube.SIDES; side++) {
+            centerPositions[homeSide[cube.getColor(centerElements[side])]] = side;
+        }
+        Integer centers = centerStateIndex.get(pack(centerPositions));
+        if (centers == null) {
+            throw new Error("centers of cube not in a reachable arrangement");
+        }
+
+        int[] cornerPositions = new int[CORNERS];
+        int[] cornerOrientations = new int[CORNERS];
+        identifyPieces(cube, homeSide, cornerElements, CORNERS,
+                cornerPositions, cornerOrientations, true);
+
+        int total = 0;
+        for (int corner = 0; corner < CORNERS; corner++) {
+            total += cornerOrientations[corner];
+        }
+        if (total % 3 != 0) {
+            throw new Error("cube cannot be solved, a corner is twisted");
+        }
+
+        int[] edgePositions = new int[EDGES];
+        int[] edgeOrientations = new int[EDGES];
+        identifyPieces(cube, homeSide, edgeElements, EDGES, edgePositions,
+                edgeOrientations, false);
+
+        int[] positions = new int[GROUP_EDGES];
+        for (int group = 0; group < EDGE_GROUPS; group++) {
+            int orientation = 0;
+            for (int i = 0; i < GROUP_EDGES; i++) {
+                int edge = group * GROUP_EDGES + i;
+                positions[i] = edgePositions[edge];
+                orientation |= edgeOrientations[edge] << i;
+            }
+            edges[group] = (rank(positions, EDGES) << GROUP_EDGES)
+                    | orientation;
+        }
+
+        return new int[] { centers, rank(cornerPositions, CORNERS),
+                orientationCoordinate(cornerOrientations) };
+    }
+
+    // *** Only private functions ahead. ***\\
+
+    /**
+     * Groups the elements of a 3x3x3 cube into pieces, by the position of
+     * each element in space.
+     */
+    private void findPieces(MoveTable moves) {
+        int[][] pieces = new int[SIZE * SIZE * SIZE][3];
+        int[] count = new int[pieces.length];
+
+        for (int element = 0; element < Cube.SIDES * SIZE * SIZE; element++) {
+            int[] location = location(element);
+            int piece = (location[0] * SIZE + location[1]) * SIZE
+                    + location[2];
+            pieces[piece][count[piece]++] = element;
+        }
+
+        int corners = 0;
+        int edges = 0;
+        for (int piece = 0; piece < pieces.length; piece++) {
+            switch (count[piece]) {
+            case 3:
+                int[] corner = orderCorner(pieces[piece]);
+                if (isFixed(moves, corner)) {
+                    cornerElements[CORNERS] = corner;
+                } else if (corners < CORNERS) {
+                    cornerElements[corners++] = corner;
+                } else {
+                    throw new Error("more than one corner never moves");
+                }
+                break;
+            case 2:
+                int[] edge = { pieces[piece][0], pieces[piece][1] };
+                edgeElements[edges++] = edge;
+                break;
+            case 1:
+                centerElements[side(pieces[piece][0])] = pieces[piece][0];
+                break;
+            }
+        }
+
+        if (corners != CORNERS || edges != EDGES) {
+            throw new Error("found " + corners + " moving corners and "
+                    + edges + " edges");
+        }
+    }
+
+    /**
+     * Puts the elements of a corner in order: the element on the top or bottom
+     * side first, the others clockwise.
+     */
+    private int[] orderCorner(int[] elements) {
+        int[] result = new int[3];
+        int next = 1;
+        for (int element : elements) {
+            int side = side(element);
+            if (side == Cube.TOP || side == Cube.BOTTOM) {
+                result[0] = element;
+            } else {
+                result[next++] = element;
+            }
+        }
+
+        int[] a = normal(side(result[0]));
+        int[] b = normal(side(result[1]));
+        int[] c = normal(side(result[2]));
+        int determinant = a[0] * (b[1] * c[2] - b[2] * c[1]) - a[1]
+                * (b[0] * c[2] - b[2] * c[0]) + a[2]
+                * (b[0] * c[1] - b[1] * c[0]);
+        if (determinant < 0) {
+            int tmp = result[1];
+            result[1] = result[2];
+            result[2] = tmp;
+        }
+        return result;
+    }
+
+    private boolean isFixed(MoveTable moves, int[] elements) {
+        byte[] labels = new byte[Cube.SIDES * SIZE * SIZE];
+        byte[] twisted = new byte[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = (byte) i;
+        }
+
+        for (int move = 0; move < MOVES; move++) {
+            moves.apply(move, labels, twisted);
+            for (int element : elements) {
+                if (twisted[element] != element) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds out where a twist takes the piece at each position, and how much
+     * it turns the piece.
+     */
+    private void followPieces(int move, int[] from, int[][] pieces, int count,
+            int[] to, int[] turn) {
+        for (int position = 0; position < pieces.length; position++) {
+            int[] elements = pieces[position];
+            int source = -1;
+            int shift = -1;
+
+            for (int i = 0; i < elements.length; i++) {
+                int piece = pieceOf(pieces, from[elements[i]]);
+                int index = indexOf(pieces[piece], from[elements[i]]);
+                int s = (i - index + elements.length) % elements.length;
+
+                if (source == -1) {
+                    source = piece;
+                    shift = s;
+                } else if (source != piece || shift != s) {
+                    throw new Error("twist " + move + " breaks up a piece");
+                }
+            }
+
+            if (source >= count) {
+                if (position != source) {
+                    throw new Error("twist " + move + " moves fixed corner");
+                }
+                continue;
+            }
+            to[move * count + source] = position;
+            turn[move * count + source] = shift;
+        }
+    }
+
+    /**
+     * Finds the piece at each position of a cube, and how it is turned. The
+     * orientations are stored by position or by piece.
+     */
+    private void identifyPieces(Cube cube, byte[] homeSide, int[][] pieces,
+            int count, int[] positions, int[] orientations, boolean byPosition) {
+        HashMap<Integer, Integer> bySides = new HashMap<Integer, Integer>();
+        for (int piece = 0; piece < count; piece++) {
+            int sides = 0;
+            for (int element : pieces[piece]) {
+                sides |= 1 << side(element);
+            }
+            bySides.put(sides, piece);
+        }
+
+        boolean[] found = new boolean[count];
+        for (int position = 0; position < count; position++) {
+            int[] elements = pieces[position];
+            int sides = 0;
+            for (int element : elements) {
+                sides |= 1 << homeSide[cube.getColor(element)];
+            }
+
+            Integer piece = bySides.get(sides);
+            if (piece == null || found[piece]) {
+                throw new Error("cube contains a piece that does not exist");
+            }
+            found[piece] = true;
+            positions[piece] = position;
+
+            // orientation is where the first element of the piece went
+            int first = side(pieces[piece][0]);
+            for (int i = 0; i < elements.length; i++) {
+                if (homeSide[cube.getColor(elements[i])] == first) {
+                    orientations[byPosition ? position : piece] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds all arrangements of the centers, and the arrangement after each
+     * twist.
+     */
+    private void compileCenters() {
+        int[] solved = new int[Cube.SIDES];
+        for (int side = 0; side < Cube.SIDES; side++) {
+            solved[side] = side;
+        }
+        centerStates[0] = solved;
+        centerStateIndex.put(pack(solved), 0);
+
+        int states = 1;
+        for (int state = 0; state < states; state++) {
+            for (int move = 0; move < MOVES; move++) {
+                int[] next = new int[Cube.SIDES];
+                for (int center = 0; center < Cube.SIDES; center++) {
+                    next[center] = centerTo[move * Cube.SIDES
+                            + centerStates[state][center]];
+                }
+
+                Integer index = centerStateIndex.get(pack(next));
+                if (index == null) {
+                    if (states == CENTER_STATES) {
+                        throw new Error("too many center arrangements");
+                    }
+                    index = states;
+                    centerStates[states++] = next;
+                    centerStateIndex.put(pack(next), index);
+                }
+                centerMoves[state * MOVES + move] = index;
+            }
+        }
+    }
+
+    private void compileCorners() {
+        int[] positions = new int[CORNERS];
+        int[] next = new int[CORNERS];
+
+        for (int coordinate = 0; coordinate < CORNER_PERMUTATIONS; coordinate++) {
+            unrank(coordinate, positions, CORNERS);
+            for (int move = 0; move < MOVES; move++) {
+                for (int corner = 0; corner < CORNERS; corner++) {
+                    next[corner] = cornerTo[move * CORNERS + positions[corner]];
+                }
+                cornerPermutationMoves[coordinate * MOVES + move] = rank(next,
+                        CORNERS);
+            }
+        }
+
+        // orientations are stored by position
+        int[] orientations = new int[CORNERS];
+        for (int coordinate = 0; coordinate < CORNER_ORIENTATIONS; coordinate++) {
+            int total = 0;
+            int value = coordinate;
+            for (int corner = CORNERS - 2; corner >= 0; corner--) {
+                orientations[corner] = value % 3;
+                total += orientations[corner];
+                value /= 3;
+            }
+            orientations[CORNERS - 1] = (3 - total % 3) % 3;
+
+            for (int move = 0; move < MOVES; move++) {
+                for (int corner = 0; corner < CORNERS; corner++) {
+                    next[cornerTo[move * CORNERS + corner]] = (orientations[corner] + cornerTwist[move
+                            * CORNERS + corner]) % 3;
+                }
+                cornerOrientationMoves[coordinate * MOVES + move] = orientationCoordinate(next);
+            }
+        }
+    }
+
+    private void compileEdges() {
+        int[] positions = new int[GROUP_EDGES];
+        int[] next = new int[GROUP_EDGES];
+        int orientations = 1 << GROUP_EDGES;
+
+        for (int arrangement = 0; arrangement < EDGE_STATES / orientations; arrangement++) {
+            unrank(arrangement, positions, EDGES);
+            for (int move = 0; move < MOVES; move++) {
+                int flip = 0;
+                for (int edge = 0; edge < GROUP_EDGES; edge++) {
+                    next[edge] = edgeTo[move * EDGES + positions[edge]];
+                    flip |= edgeFlip[move * EDGES + positions[edge]] << edge;
+                }
+                int twisted = rank(next, EDGES) << GROUP_EDGES;
+
+                for (int orientation = 0; orientation < orientations; orientation++) {
+                    edgeMoves[((arrangement << GROUP_EDGES) | orientation)
+                            * MOVES + move] = twisted | (orientation ^ flip);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the edges each twist moves, for twisting packed edges, and the
+     * rank of the edges of a group.
+     */
+    private void compilePackedEdges() {
+        int moved = 0;
+        for (int move = 0; move < MOVES; move++) {
+            movedStart[move] = moved;
+            long kept = -1L;
+            for (int position = 0; position < EDGES; position++) {
+                int to = edgeTo[move * EDGES + position];
+                if (to != position || edgeFlip[move * EDGES + position] != 0) {
+                    movedFrom[moved] = position;
+                    movedTo[moved] = to;
+                    movedFlip[moved] = edgeFlip[move * EDGES + position];
+                    moved++;
+                    kept &= ~((15L << (4 * to)) | (1L << (FLIPS + to)));
+                }
+            }
+            keptEdges[move] = kept;
+        }
+        movedStart[MOVES] = moved;
+
+        int[] edges = new int[GROUP_EDGES];
+        for (int packed = 0; packed < groupRanks.length; packed++) {
+            boolean valid = true;
+            for (int i = 0; i < GROUP_EDGES; i++) {
+                edges[i] = (packed >> (4 * i)) & 15;
+                valid &= edges[i] < EDGES;
+                for (int j = 0; j < i; j++) {
+                    valid &= edges[j] != edges[i];
+                }
+            }
+            if (valid) {
+                groupRanks[packed] = (char) rank(edges, EDGES);
+            }
+        }
+    }
+
+    /**
+     * Fills in the twists after which a coordinate is solved, for each value
+     * of the coordinate.
+     */
+    private void solvingMoves(int[] coordinateMoves, int solved, char[] result) {
+        for (int coordinate = 0; coordinate < result.length; coordinate++) {
+            int moves = 0;
+            for (int move = 0; move < MOVES; move++) {
+                if (coordinateMoves[coordinate * MOVES + move] == solved) {
+                    moves |= 1 << move;
+                }
+            }
+            result[coordinate] = (char) moves;
+        }
+    }
+
+    /**
+     * Computes the orientation coordinate from the orientations of the first
+     * six corners, the last one follows from those.
+     */
+    private int orientationCoordinate(int[] orientations) {
+        int result = 0;
+        for (int corner = 0; corner < CORNERS - 1; corner++) {
+            result = result * 3 + orientations[corner];
+        }
+        return result;
+    }
+
+    /**
+     * Numbers an arrangement of distinct positions (out of a given number of
+     * positions) densely, starting at 0 for 0, 1, 2, ...
+     */
+    static int rank(int[] positions, int available) {
+        int result = 0;
+        for (int i = 0; i < positions.length; i++) {
+            int smaller = 0;
+            for (int j = 0; j < i; j++) {
+                if (positions[j] < positions[i]) {
+                    smaller++;
+                }
+            }
+            result = result * (available - i) + positions[i] - smaller;
+        }
+        return result;
+    }
+
+    /**
+     * Inverse of {@link #rank(int[], int)}.
+     */
+    static void unrank(int rank, int[] positions, int available) {
+        for (int i = positions.length - 1; i >= 0; i--) {
+            positions[i] = rank % (available - i);
+            rank /= available - i;
+        }
+
+        // turn each digit into the digit'th position not used before
+        boolean[] used = new boolean[available];
+        for (int i = 0; i < positions.length; i++) {
+            int digit = positions[i];
+            int position = 0;
+            while (used[position] || digit > 0) {
+                if (!used[position]) {
+                    digit--;
+                }
+                position++;
+            }
+            used[position] = true;
+            positions[i] = position;
+        }
+    }
+
+    private static int pack(int[] centers) {
+        int result = 0;
+        for (int center : centers) {
+            result = result * Cube.SIDES + center;
+        }
+        return result;
+    }
+
+    private static int pieceOf(int[][] pieces, int element) {
+        for (int piece = 0; piece < pieces.length; piece++) {
+            if (indexOf(pieces[piece], element) != -1) {
+                return piece;
+            }
+        }
+        throw new Error("element " + element + " not part of a piece");
+    }
+
+    private static int indexOf(int[] elements, int element) {
+        for (int i = 0; i < elements.length; i++) {
+            if (elements[i] == element) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int side(int element) {
+        return element / (SIZE * SIZE);
+    }
+
+    /**
+     * Location in space of an element: x from left to right, y from top to
+     * bottom, z from back to front.
+     */
+    private static int[] location(int element) {
+        int side = side(element);
+        int row = (element % (SIZE * SIZE)) / SIZE;
+        int column = element % SIZE;
+        int last = SIZE - 1;
+
+        switch (side) {
+        case Cube.TOP:
+            return new int[] { column, 0, row };
+        case Cube.LEFT:
+            return new int[] { 0, row, column };
+        case Cube.FRONT:
+            return new int[] { column, row, last };
+        case Cube.RIGHT:
+            return new int[] { last, row, last - column };
+        case Cube.BACK:
+            return new int[] { last - column, row, 0 };
+        case Cube.BOTTOM:
+            return new int[] { column, last, last - row };
+        default:
+            throw new Error("unknown side: " + side);
+        }
+    }
+
+    /**
+     * Direction a side faces, in the same space as {@link #location(int)}.
+     */
+    private static int[] normal(int side) {
+        switch (side) {
+        case Cube.TOP:
+            return new int[] { 0, -1, 0 };
+        case Cube.LEFT:
+            return new int[] { -1, 0, 0 };
+        case Cube.FRONT:
+            return new int[] { 0, 0, 1 };
+        case Cube.RIGHT:
+            return new int[] { 1, 0, 0 };
+        case Cube.BACK:
+            return new int[] { 0, 0, -1 };
+        case Cube.BOTTOM:
+            return new int[] { 0, 1, 0 };
+        default:
+            throw new Error("unknown side: " + side);
+        }
+    }
+}
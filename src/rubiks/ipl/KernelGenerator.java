@@ -0,0 +1,299 @@
+package rubiks.ipl;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Generates a {@link TwistKernel} for the twists of a {@link MoveTable} with
+ * the ASM library (shipped with ibis). Every twist gets a method of
+ * straight-line bytecode, which twists a cube and computes the change in its
+ * number of misplaced elements and its fingerprint in one go. The kernel
+ * itself only selects the method of a twist.
+ *
+ * The JIT does not compile methods over 8000 bytes of bytecode, which would
+ * make the kernel much slower than the loops it replaces. No kernel is
+ * generated for cube sizes that need such large methods.
+ *
+ */
+final class KernelGenerator implements Opcodes {
+
+    // largest method the JIT still compiles (HotSpot's HugeMethodLimit)
+    static final int MAX_METHOD_SIZE = 8000;
+
+    private static final String KERNEL = TwistKernel.class.getName().replace(
+            '.', '/');
+
+    private static final String DESCRIPTOR = "([B[I[J[J)I";
+
+    // locals of the method of a twist
+    private static final int DATA = 0;
+
+    private static final int MISPLACED_COLORS = 1;
+
+    private static final int KEYS = 2;
+
+    private static final int FINGERPRINT = 3;
+
+    private static final int COLORS = 4; // colors of a cycle, 4 locals
+
+    private static final int MISPLACED_CHANGE = 8;
+
+    private static final int FINGERPRINT_CHANGE = 9; // a long, 2 locals
+
+    private final MoveTable moves;
+
+    private final String name;
+
+    private MethodVisitor method;
+
+    private int methodSize; // bytes of bytecode in the current method
+
+    private boolean tooLarge;
+
+    /**
+     * Loads generated classes. Every kernel gets its own loader.
+     */
+    private static class Loader extends ClassLoader {
+
+        Loader() {
+            super(TwistKernel.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] code) {
+            return defineClass(name, code, 0, code.length);
+        }
+    }
+
+    private KernelGenerator(MoveTable moves) {
+        this.moves = moves;
+        this.name = KERNEL + "Size" + moves.getSize();
+    }
+
+    /**
+     * Generates the kernel for the twists of a move table.
+     *
+     * @param moves
+     *            twists to generate code for
+     * @return the kernel, or null if the methods would be too large
+     */
+    static TwistKernel generate(MoveTable moves) {
+        return new KernelGenerator(moves).generate();
+    }
+
+    private TwistKernel generate() {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(V1_5, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, name, null,
+                KERNEL, null);
+
+        MethodVisitor constructor = writer.visitMethod(ACC_PUBLIC, "<init>",
+                "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(ALOAD, 0);
+        constructor.visitMethodInsn(INVOKESPECIAL, KERNEL, "<init>", "()V");
+        constructor.visitInsn(RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        for (int move = 0; move < moves.getMoves(); move++) {
+            generateTwist(writer, move);
+        }
+        if (tooLarge) {
+            return null;
+        }
+
+        generateDispatch(writer);
+        writer.visitEnd();
+
+        try {
+            Class<?> kernel = new Loader().define(name.replace('/', '.'),
+                    writer.toByteArray());
+            return (TwistKernel) kernel.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new Error("could not load generated kernel", e);
+        }
+    }
+
+    /**
+     * Generates "twist(move, data, misplacedColors, keys, fingerprint)",
+     * calling "twistN(data, misplacedColors, keys, fingerprint)" for twist N.
+     */
+    private void generateDispatch(ClassWriter writer) {
+        MethodVisitor dispatch = writer.visitMethod(ACC_PUBLIC, "twist",
+                "(I[B[I[J[J)I", null, null);
+        dispatch.visitCode();
+
+        Label[] labels = new Label[moves.getMoves()];
+        for (int move = 0; move < labels.length; move++) {
+            labels[move] = new Label();
+        }
+        Label unknown = new Label();
+
+        dispatch.visitVarInsn(ILOAD, 1);
+        dispatch.visitTableSwitchInsn(0, labels.length - 1, unknown, labels);
+        for (int move = 0; move < labels.length; move++) {
+            dispatch.visitLabel(labels[move]);
+            for (int argument = 2; argument <= 5; argument++) {
+                dispatch.visitVarInsn(ALOAD, argument);
+            }
+            dispatch.visitMethodInsn(INVOKESTATIC, name, "twist" + move,
+                    DESCRIPTOR);
+            dispatch.visitInsn(IRETURN);
+        }
+
+        dispatch.visitLabel(unknown);
+        dispatch.visitTypeInsn(NEW, "java/lang/Error");
+        dispatch.visitInsn(DUP);
+        dispatch.visitLdcInsn("unknown twist");
+        dispatch.visitMethodInsn(INVOKESPECIAL, "java/lang/Error", "<init>",
+                "(Ljava/lang/String;)V");
+        dispatch.visitInsn(ATHROW);
+
+        dispatch.visitMaxs(0, 0);
+        dispatch.visitEnd();
+    }
+
+    /**
+     * Generates "static int twistN(byte[] data, int[] misplacedColors, long[]
+     * keys, long[] fingerprint)". Same as the loops in Cube, unrolled.
+     */
+    private void generateTwist(ClassWriter writer, int move) {
+        method = writer.visitMethod(ACC_PRIVATE | ACC_STATIC, "twist" + move,
+                DESCRIPTOR, null, null);
+        method.visitCode();
+        methodSize = 0;
+
+        push(0);
+        variable(ISTORE, MISPLACED_CHANGE);
+        push(0);
+        instruction(I2L);
+        variable(LSTORE, FINGERPRINT_CHANGE);
+
+        int[] rings = moves.rings;
+        for (int i = moves.ringStart[move]; i < moves.ringStart[move + 1]; i += 8) {
+            cycle(rings, i);
+
+            // element j got the color of element j + 1, from the side of
+            // element j + 1
+            for (int j = 0; j < 4; j++) {
+                int color = COLORS + (j + 1) % 4;
+
+                variable(ILOAD, MISPLACED_CHANGE);
+                misplaced(color, rings[i + 4 + j]);
+                instruction(IADD);
+                misplaced(color, rings[i + 4 + (j + 1) % 4]);
+                instruction(ISUB);
+                variable(ISTORE, MISPLACED_CHANGE);
+            }
+        }
+
+        int[] cycles = moves.cycles;
+        for (int i = moves.cycleStart[move]; i < moves.cycleStart[move + 1]; i += 4) {
+            cycle(cycles, i);
+        }
+
+        // fingerprint[0] ^= change
+        variable(ALOAD, FINGERPRINT);
+        push(0);
+        instruction(DUP2);
+        instruction(LALOAD);
+        variable(LLOAD, FINGERPRINT_CHANGE);
+        instruction(LXOR);
+        instruction(LASTORE);
+
+        variable(ILOAD, MISPLACED_CHANGE);
+        instruction(IRETURN);
+
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+
+        if (methodSize > MAX_METHOD_SIZE) {
+            tooLarge = true;
+        }
+    }
+
+    /**
+     * Generates code moving the elements of a cycle of four elements, leaving
+     * their old colors in the color locals, and updating the change in the
+     * fingerprint.
+     */
+    private void cycle(int[] cycles, int start) {
+        for (int j = 0; j < 4; j++) {
+            variable(ALOAD, DATA);
+            push(cycles[start + j]);
+            instruction(BALOAD);
+            variable(ISTORE, COLORS + j);
+        }
+        for (int j = 0; j < 4; j++) {
+            int element = cycles[start + j];
+            int color = COLORS + (j + 1) % 4;
+
+            variable(ALOAD, DATA);
+            push(element);
+            variable(ILOAD, color);
+            instruction(BASTORE);
+
+            variable(LLOAD, FINGERPRINT_CHANGE);
+            key(element, COLORS + j);
+            instruction(LXOR);
+            key(element, color);
+            instruction(LXOR);
+            variable(LSTORE, FINGERPRINT_CHANGE);
+        }
+    }
+
+    /**
+     * Generates code pushing misplacedColors[side + color].
+     */
+    private void misplaced(int color, int side) {
+        variable(ALOAD, MISPLACED_COLORS);
+        variable(ILOAD, color);
+        if (side != 0) {
+            push(side);
+            instruction(IADD);
+        }
+        instruction(IALOAD);
+    }
+
+    /**
+     * Generates code pushing the key of an element with the color in a local:
+     * keys[(element << KEY_SHIFT) + color].
+     */
+    private void key(int element, int color) {
+        variable(ALOAD, KEYS);
+        push(element << MoveTable.KEY_SHIFT);
+        variable(ILOAD, color);
+        instruction(IADD);
+        instruction(LALOAD);
+    }
+
+    // *** Emitting instructions, keeping track of the size of the method ***\\
+
+    private void instruction(int opcode) {
+        method.visitInsn(opcode);
+        methodSize += 1;
+    }
+
+    private void variable(int opcode, int index) {
+        method.visitVarInsn(opcode, index);
+        // ASM uses the one byte forms for the first four locals
+        methodSize += index < 4 ? 1 : 2;
+    }
+
+    private void push(int value) {
+        if (value >= -1 && value <= 5) {
+            method.visitInsn(ICONST_0 + value);
+            methodSize += 1;
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            method.visitIntInsn(BIPUSH, value);
+            methodSize += 2;
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            method.visitIntInsn(SIPUSH, value);
+            methodSize += 3;
+        } else {
+            method.visitLdcInsn(value);
+            methodSize += 3;
+        }
+    }
+}
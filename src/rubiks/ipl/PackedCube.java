@@ -0,0 +1,76 @@
+package rubiks.ipl;
+
+import java.io.Serializable;
+
+/**
+ * Compact form of a rubik's cube. Each element only needs 3 bits to store its
+ * color, so the elements are packed into longs, 21 elements per long. A 3x3x3
+ * cube fits in three longs, a 4x4x4 cube in five.
+ *
+ * Use this class to store or send cubes that are not being twisted, such as
+ * jobs waiting in a queue. Use {@link Cube#pack()} and
+ * {@link Cube#unpack(PackedCube)} to convert between the two forms.
+ *
+ */
+public class PackedCube implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int BITS = 3; // bits per element
+
+    static final int ELEMENTS_PER_WORD = 64 / BITS;
+
+    static final long ELEMENT_MASK = (1L << BITS) - 1;
+
+    final int size;
+
+    final int twists;
+
+    final int bound;
+
+    final int sequence; // see Cube.getSequence()
+
+    final int weight; // see Cube.getWeight()
+
+    final long[] words;
+
+    PackedCube(int size, int twists, int bound, int sequence, int weight) {
+        this.size = size;
+        this.twists = twists;
+        this.bound = bound;
+        this.sequence = sequence;
+        this.weight = weight;
+
+        words = new long[words(size)];
+    }
+
+    /**
+     * Returns the number of longs needed to store a cube of a given size.
+     *
+     * @param size
+     *            size of the cube
+     * @return number of longs needed
+     */
+    static int words(int size) {
+        int elements = Cube.SIDES * size * size;
+        return (elements + ELEMENTS_PER_WORD - 1) / ELEMENTS_PER_WORD;
+    }
+
+    /**
+     * Returns the size of this cube.
+     *
+     * @return the size of this cube.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Number of times this cube has been twisted
+     *
+     * @return the number of twists
+     */
+    public int getTwists() {
+        return twists;
+    }
+}
@@ -0,0 +1,361 @@
+package rubiks.ipl;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Tool generating the {@link PatternDatabase}s, to be loaded by the solver
+ * (option --pdb). Also used by the solver itself to build the databases when
+ * none are loaded. With --size 4 it writes the {@link CenterDatabase}
+ * instead, which is small enough to be built by a single thread, and with
+ * --size 2 the {@link PocketTable} of all cubes of that size.
+ *
+ * A breadth first search from the solved pieces, one level at a time. The
+ * pieces reached in the last level (the frontier) are kept as a bitmap. A
+ * small frontier is expanded by twisting each of its entries. A large one is
+ * expanded by several threads, each looking at its own part of the entries:
+ * an entry not reached yet is reached in this level if a twist takes it into
+ * the frontier (twists can be undone, so it is one twist away from the
+ * frontier). Each thread only writes its own part of the distances and of the
+ * next frontier, so no locking is needed.
+ *
+ */
+public final class PatternDatabaseGenerator {
+
+    // entries per part, a part fills whole words of the bitmaps
+    private static final int PART = 4096;
+
+    private final CubieTable table;
+
+    private final int threads;
+
+    private final int[] reached; // entries reached by each thread this level
+
+    // database being generated, and its distances, see PatternDatabase
+    private PatternDatabase database;
+
+    private byte[] distances;
+
+    // entries reached in the last level, and in the level being expanded
+    private long[] frontier;
+
+    private long[] nextFrontier;
+
+    private int depth; // largest distance of any entry
+
+    /**
+     * Creates a generator.
+     *
+     * @param threads
+     *            number of threads expanding each level
+     */
+    public PatternDatabaseGenerator(int threads) {
+        table = CubieTable.get();
+        this.threads = Math.max(threads, 1);
+        reached = new int[this.threads];
+    }
+
+    /**
+     * Runs the breadth first search for one database.
+     *
+     * @param pattern
+     *            number of the database, see {@link PatternDatabase#get()}
+     * @return the pattern database
+     */
+    public PatternDatabase generate(int pattern) {
+        distances = new byte[PatternDatabase.bytes(new PatternDatabase(table,
+                pattern, null).entries)];
+        database = new PatternDatabase(table, pattern,
+                ByteBuffer.wrap(distances));
+        frontier = new long[(database.entries + 63) / 64];
+        nextFrontier = new long[frontier.length];
+        depth = 0;
+
+        Arrays.fill(distances, (byte) 0xff); // all UNKNOWN
+        set(database.solved, 0);
+        frontier[database.solved >> 6] = 1L << database.solved;
+
+        // frontiers smaller than this are expanded by twisting their entries
+        int small = database.entries / 64;
+
+        int size = 1; // entries in the frontier
+        while (size > 0) {
+            if (size < small) {
+                size = expandSmall();
+            } else {
+                size = expand();
+            }
+
+            if (size > 0) {
+                depth++;
+                if (depth >= PatternDatabase.UNKNOWN) {
+                    throw new Error("pattern " + pattern
+                            + " too far from solved to store");
+                }
+                long[] swap = frontier;
+                frontier = nextFrontier;
+                nextFrontier = swap;
+            }
+        }
+
+        PatternDatabase result = database;
+        database = null;
+        distances = null;
+        frontier = null;
+        nextFrontier = null;
+        return result;
+    }
+
+    /**
+     * Returns the largest number of twists needed to solve the pieces of the
+     * last database generated.
+     *
+     * @return the largest distance found
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Expands a small frontier by one level, by twisting each of its entries.
+     * Returns the number of entries reached.
+     */
+    private int expandSmall() {
+        int moves = CubieTable.MOVES;
+        int secondStates = database.secondStates;
+        int[] firstMoves = database.firstMoves;
+        int[] secondMoves = database.secondMoves;
+        int result = 0;
+
+        Arrays.fill(nextFrontier, 0L);
+        for (int word = 0; word < frontier.length; word++) {
+            long bits = frontier[word];
+            while (bits != 0) {
+                int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+
+                int first = index / secondStates;
+                int second = index % secondStates;
+                for (int move = 0; move < moves; move++) {
+                    int neighbour = firstMoves[first * moves + move]
+                            * secondStates + secondMoves[second * moves + move];
+                    if (get(neighbour) == PatternDatabase.UNKNOWN) {
+                        set(neighbour, depth + 1);
+                        nextFrontier[neighbour >> 6] |= 1L << neighbour;
+                        result++;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Expands the frontier by one level, with all threads. Returns the number
+     * of entries reached.
+     */
+    private int expand() {
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int thread = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    reached[thread] = expand(thread);
+                }
+            };
+            workers[i].start();
+        }
+
+        int result = 0;
+        for (int i = 0; i < threads; i++) {
+            try {
+                workers[i].join();
+            } catch (InterruptedException e) {
+                throw new Error("interrupted while generating", e);
+            }
+            result += reached[i];
+        }
+        return result;
+    }
+
+    /**
+     * Finds the entries reached in the parts of one thread: every threads-th
+     * part, so the threads get about as many entries reached each.
+     */
+    private int expand(int thread) {
+        int moves = CubieTable.MOVES;
+        int entries = database.entries;
+        int secondStates = database.secondStates;
+        int[] firstMoves = database.firstMoves;
+        int[] secondMoves = database.secondMoves;
+        int result = 0;
+
+        for (int start = thread * PART; start < entries; start += threads
+                * PART) {
+            int end = Math.min(start + PART, entries);
+            Arrays.fill(nextFrontier, start >> 6, (end + 63) >> 6, 0L);
+
+            int first = start / secondStates;
+            int second = start % secondStates;
+            for (int index = start; index < end; index++) {
+                if (get(index) == PatternDatabase.UNKNOWN) {
+                    for (int move = 0; move < moves; move++) {
+                        int neighbour = firstMoves[first * moves + move]
+                                * secondStates
+                                + secondMoves[second * moves + move];
+                        if ((frontier[neighbour >> 6] & (1L << neighbour)) != 0) {
+                            set(index, depth + 1);
+                            nextFrontier[index >> 6] |= 1L << index;
+                            result++;
+                            break;
+                        }
+                    }
+                }
+
+                second++;
+                if (second == secondStates) {
+                    second = 0;
+                    first++;
+                }
+            }
+        }
+        return result;
+    }
+
+    private int get(int index) {
+        return (distances[index >> 1] >> ((index & 1) << 2)) & 15;
+    }
+
+    private void set(int index, int value) {
+        int shift = (index & 1) << 2;
+        distances[index >> 1] = (byte) ((distances[index >> 1] & ~(15 << shift)) | (value << shift));
+    }
+
+    public static void printUsage() {
+        System.out.println("Pattern database generator");
+        System.out.println("");
+        System.out
+                .println("Finds the twists needed to solve the corners and each group of edges of a");
+        System.out
+                .println(" 3x3x3 cube, the centers of a 4x4x4 cube, or every 2x2x2 cube, and writes them to");
+        System.out.println(" a file, for use with the --pdb option of the solver");
+        System.out.println("");
+        System.out.println("USAGE: PatternDatabaseGenerator [OPTIONS]");
+        System.out.println("");
+        System.out.println("Options:");
+        System.out
+                .println("--size SIZE\t\tSize of cube, 2, 3 or 4 (default: 3)");
+        System.out
+                .println("--threads THREADS\t\tNumber of threads to use (default: number of processors)");
+        System.out
+                .println("--file FILE_NAME\t\tFile to write the databases to (default: patterns.pdb, centers.pdb for size 4, or pocket.pdb for size 2)");
+        System.out.println("");
+    }
+
+    /**
+     * Main function.
+     *
+     * @param arguments
+     *            list of arguments
+     */
+    public static void main(String[] arguments) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int size = 3;
+        String fileName = null;
+
+        for (int i = 0; i < arguments.length; i++) {
+            if (arguments[i].equalsIgnoreCase("--size")) {
+                i++;
+                size = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--threads")) {
+                i++;
+                threads = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--file")) {
+                i++;
+                fileName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--help")
+                    || arguments[i].equalsIgnoreCase("-h")) {
+                printUsage();
+                System.exit(0);
+            } else {
+                System.err.println("unknown option : " + arguments[i]);
+                printUsage();
+                System.exit(1);
+            }
+        }
+
+        if (size != 3 && size != CenterDatabase.SIZE
+                && size != PocketTable.SIZE) {
+            System.err.println("no pattern databases for size " + size);
+            System.exit(1);
+        }
+
+        long start = System.currentTimeMillis();
+
+        if (size == CenterDatabase.SIZE) {
+            if (fileName == null) {
+                fileName = "centers.pdb";
+            }
+            try {
+                CenterDatabase.get().write(fileName);
+            } catch (Exception e) {
+                System.err.println("Cannot write center database: " + e);
+                System.exit(1);
+            }
+
+            long end = System.currentTimeMillis();
+
+            System.out.println("Wrote center database to " + fileName);
+            System.err.println("Generating center database took "
+                    + (end - start) + " milliseconds");
+            return;
+        }
+        if (size == PocketTable.SIZE) {
+            if (fileName == null) {
+                fileName = "pocket.pdb";
+            }
+            try {
+                PocketTable.get().write(fileName);
+            } catch (Exception e) {
+                System.err.println("Cannot write pocket cube table: " + e);
+                System.exit(1);
+            }
+
+            long end = System.currentTimeMillis();
+
+            System.out.println("Wrote pocket cube table to " + fileName);
+            System.err.println("Generating pocket cube table took "
+                    + (end - start) + " milliseconds");
+            return;
+        }
+        if (fileName == null) {
+            fileName = "patterns.pdb";
+        }
+
+        PatternDatabaseGenerator generator = new PatternDatabaseGenerator(
+                threads);
+        PatternDatabase[] databases = new PatternDatabase[PatternDatabase.COUNT];
+        for (int pattern = 0; pattern < databases.length; pattern++) {
+            databases[pattern] = generator.generate(pattern);
+            if (pattern == PatternDatabase.CORNERS) {
+                System.out.println("corners: up to " + generator.getDepth()
+                        + " twists");
+            } else {
+                System.out.println("edge group " + pattern + ": up to "
+                        + generator.getDepth() + " twists");
+            }
+        }
+        try {
+            PatternDatabase.write(databases, fileName);
+        } catch (Exception e) {
+            System.err.println("Cannot write pattern databases: " + e);
+            System.exit(1);
+        }
+
+        long end = System.currentTimeMillis();
+
+        System.out.println("Wrote pattern databases to " + fileName);
+        System.err.println("Generating pattern databases took "
+                + (end - start) + " milliseconds");
+    }
+}
@@ -0,0 +1,255 @@
+package rubiks.ipl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * End game table of the cubes within a few twists of the solved cube
+ * (perimeter search). For each such cube it holds the number of twists
+ * needed to solve it, and the number of shortest twist sequences solving
+ * it, by the axis of their first twist. Once the search is this close to
+ * its bound, it looks up the cube instead of trying all twists left, see
+ * {@link Rubiks}.
+ *
+ * The cubes are found by a breadth first search from the solved cube, and
+ * kept by their fingerprint. Twists can be undone, so a sequence from the
+ * solved cube to a cube, undone in reverse, is a sequence solving that
+ * cube. Its first twist is on the axis of the last twist of the sequence
+ * found by the search.
+ *
+ * Fingerprints depend on the colors, so a table is only used for cubes with
+ * the colors of the cube it was built for. There is only one table, the one
+ * built last, shared by all threads.
+ *
+ */
+public final class PerimeterTable {
+
+    // depth meaning as deep as LIMIT cubes allow
+    public static final int AUTOMATIC = -1;
+
+    // most cubes kept when no depth is given
+    static final int LIMIT = 1 << 16;
+
+    private static final int AXES = 3;
+
+    private static PerimeterTable table;
+
+    private final int size;
+
+    private final long solved; // fingerprint of the solved cube
+
+    private final int maxDepth; // depth asked for
+
+    private final int depth; // twists of the cubes furthest from solved
+
+    // fingerprint of the cube in each slot, slots found by linear probing
+    private final long[] keys;
+
+    // twists needed to solve the cube in each slot, -1 for empty slots
+    private final byte[] distances;
+
+    /*
+     * shortest twist sequences solving the cube in each slot, which start on
+     * an axis, at index slot * AXES + axis
+     */
+    private final int[] counts;
+
+    private final int mask;
+
+    /**
+     * Returns the table for cubes with the size and colors of a cube,
+     * building it if the last one built is for other cubes.
+     *
+     * @param cube
+     *            any cube to be solved with the table
+     * @param maxDepth
+     *            twists of the cubes furthest from solved in the table, or
+     *            AUTOMATIC
+     * @return the perimeter table
+     */
+    public static synchronized PerimeterTable get(Cube cube, int maxDepth) {
+        Cube solved = cube.solved();
+        if (table == null || table.size != cube.getSize()
+                || table.solved != solved.getFingerprint()
+                || table.maxDepth != maxDepth) {
+            table = new PerimeterTable(solved, maxDepth);
+        }
+        return table;
+    }
+
+    private PerimeterTable(Cube start, int maxDepth) {
+        MoveTable moves = MoveTable.get(start.getSize());
+        int rows = start.getSize() - 1;
+        size = start.getSize();
+        solved = start.getFingerprint();
+        this.maxDepth = maxDepth;
+
+        // cubes by number, in order of discovery
+        HashMap<Long, Integer> numbers = new HashMap<Long, Integer>();
+        List<Long> fingerprints = new ArrayList<Long>();
+        int[] found = new int[64];
+        int[] totals = new int[64]; // shortest sequences to each cube
+        int[] byAxis = new int[64 * AXES];
+
+        numbers.put(solved, 0);
+        fingerprints.add(solved);
+        totals[0] = 1;
+
+        List<Cube> frontier = new ArrayList<Cube>();
+        List<Integer> frontierNumbers = new ArrayList<Integer>();
+        frontier.add(start);
+        frontierNumbers.add(0);
+
+        int reached = 0;
+        int previous = 0; // cubes in the level before the frontier
+        boolean full = false;
+        while (!frontier.isEmpty() && !full
+                && (maxDepth == AUTOMATIC || reached < maxDepth)) {
+            if (maxDepth == AUTOMATIC && previous > 0) {
+                // levels grow about as fast as the last one did, do not start
+                // one which will not fit
+                long expected = (long) frontier.size() * frontier.size()
+                        / previous;
+                if (fingerprints.size() + expected > LIMIT) {
+                    break;
+                }
+            }
+            int levelStart = fingerprints.size();
+            List<Cube> nextFrontier = new ArrayList<Cube>();
+            List<Integer> nextNumbers = new ArrayList<Integer>();
+
+            for (int i = 0; i < frontier.size() && !full; i++) {
+                Cube cube = frontier.get(i);
+                int from = frontierNumbers.get(i);
+
+                for (int move = 0; move < moves.getMoves() && !full; move++) {
+                    cube.apply(moves, move);
+                    Integer number = numbers.get(cube.getFingerprint());
+                    if (number == null) {
+                        if (maxDepth == AUTOMATIC
+                                && fingerprints.size() >= LIMIT) {
+                            full = true;
+                        } else {
+                            number = fingerprints.size();
+                            numbers.put(cube.getFingerprint(), number);
+                            fingerprints.add(cube.getFingerprint());
+                            if (number == found.length) {
+                                found = Arrays.copyOf(found, 2 * number);
+                                totals = Arrays.copyOf(totals, 2 * number);
+                                byAxis = Arrays.copyOf(byAxis, 2 * number
+                                        * AXES);
+                            }
+                            found[number] = reached + 1;
+                            nextFrontier.add(new Cube(cube));
+                            nextNumbers.add(number);
+                        }
+                    }
+                    if (number != null && found[number] == reached + 1) {
+                        totals[number] += totals[from];
+                        byAxis[number * AXES + move / (2 * rows)] += totals[from];
+                    }
+                    cube.undo(moves, move);
+                }
+            }
+
+            if (full) {
+                // the level does not fit after all, leave it out
+                while (fingerprints.size() > levelStart) {
+                    numbers.remove(fingerprints.remove(fingerprints.size() - 1));
+                }
+            } else {
+                reached++;
+                previous = frontier.size();
+                frontier = nextFrontier;
+                frontierNumbers = nextNumbers;
+            }
+        }
+        depth = reached;
+
+        int capacity = Integer.highestOneBit(Math.max(fingerprints.size(), 1)) * 4;
+        mask = capacity - 1;
+        keys = new long[capacity];
+        distances = new byte[capacity];
+        counts = new int[capacity * AXES];
+        Arrays.fill(distances, (byte) -1);
+
+        for (int number = 0; number < fingerprints.size(); number++) {
+            long key = fingerprints.get(number);
+            int slot = slot(key);
+            while (distances[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            distances[slot] = (byte) found[number];
+            System.arraycopy(byAxis, number * AXES, counts, slot * AXES, AXES);
+        }
+    }
+
+    /**
+     * Returns the twists of the cubes furthest from solved in this table.
+     * Cubes further away are not in the table.
+     *
+     * @return the depth of this table
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Finds a cube in this table.
+     *
+     * @param fingerprint
+     *            fingerprint of the cube
+     * @return the slot of the cube, or -1 if the cube needs more twists than
+     *         the depth of this table
+     */
+    public int find(long fingerprint) {
+        int slot = slot(fingerprint);
+        while (distances[slot] >= 0) {
+            if (keys[slot] == fingerprint) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of twists needed to solve the cube in a slot.
+     *
+     * @param slot
+     *            slot of the cube, see {@link #find(long)}
+     * @return the number of twists needed
+     */
+    public int distance(int slot) {
+        return distances[slot];
+    }
+
+    /**
+     * Returns the number of shortest twist sequences solving the cube in a
+     * slot, which do not start on an axis.
+     *
+     * @param slot
+     *            slot of the cube, see {@link #find(long)}
+     * @param axis
+     *            axis the sequences may not start on, -1 to count them all
+     * @return the number of shortest sequences
+     */
+    public int solutions(int slot, int axis) {
+        int result = 0;
+        for (int i = 0; i < AXES; i++) {
+            if (i != axis) {
+                result += counts[slot * AXES + i];
+            }
+        }
+        return result;
+    }
+
+    // *** Only private functions ahead. ***\\
+
+    private int slot(long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+    }
+}
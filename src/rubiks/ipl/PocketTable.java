@@ -0,0 +1,579 @@
+package rubiks.ipl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Table of every cube of size 2 (the pocket cube): the number of twists needed
+ * to solve it, and the number of twist sequences solving it in that many
+ * twists. With it {@link Rubiks} solves a cube of size 2 with a single lookup
+ * instead of a search.
+ *
+ * A cube of size 2 only has corners. The corner which never moves (see
+ * {@link MoveTable}) fixes how the cube as a whole is turned, so a cube is
+ * given by the positions of the seven other corners (7! permutations) and the
+ * orientations of the first six of them (3^6, the orientations of all corners
+ * add up to a multiple of 3). Each of the 3674160 cubes has its own index
+ * (a perfect hash): the rank of the permutation, times 729, plus the
+ * orientations as a number in base 3. The orientation of a corner is the
+ * element its top or bottom color is on, counted from the element on the top
+ * or bottom side of its position, always the same way round the corner.
+ *
+ * The table is filled by a breadth first search from the solved cube, with
+ * the permutation and orientation after each twist looked up in move tables,
+ * as {@link PatternDatabaseGenerator} does. The number of sequences leading to
+ * a cube is the sum of those leading to the cubes of the level before one
+ * twist away. A small level is expanded by twisting each of its cubes, a
+ * large one by several threads, each finding the cubes in its own part of
+ * the table which are one twist away from the last level. Twists can be
+ * undone, so a sequence from the solved cube, undone in reverse, solves the
+ * cube it leads to.
+ *
+ */
+public final class PocketTable {
+
+    public static final int SIZE = 2;
+
+    static final int PERMUTATIONS = 5040;
+
+    static final int ORIENTATIONS = 729;
+
+    static final int ENTRIES = PERMUTATIONS * ORIENTATIONS;
+
+    private static final int CORNERS = 8;
+
+    private static final int MOVING = CORNERS - 1;
+
+    private static final int MAGIC = 0x504f434b;
+
+    private static final int UNKNOWN = 0xff;
+
+    // entries per part expanded by a thread
+    private static final int PART = 4096;
+
+    private static volatile PocketTable table;
+
+    private final ParityTable corners;
+
+    private final int moves;
+
+    // position of each moving corner, and the other way around (-1 for the
+    // fixed corner)
+    private final int[] positions = new int[MOVING];
+
+    private final int[] moving = new int[CORNERS];
+
+    // for each corner position, its elements in the order its orientation
+    // counts them
+    private final int[][] slots = new int[CORNERS][];
+
+    // permutation and orientation after each twist, at state * moves + move
+    private final int[] permutationMoves;
+
+    private final int[] orientationMoves;
+
+    // the distance of each entry (a byte), followed by its number of
+    // sequences (an int), as in the file
+    private final ByteBuffer data;
+
+    /**
+     * Returns the table, building it with all processors if none is loaded.
+     *
+     * @return the pocket cube table
+     */
+    public static PocketTable get() {
+        PocketTable result = table;
+        if (result != null) {
+            return result;
+        }
+        return create();
+    }
+
+    private static synchronized PocketTable create() {
+        if (table == null) {
+            table = new PocketTable(null);
+        }
+        return table;
+    }
+
+    /**
+     * Returns if a file holds a pocket cube table, rather than the databases
+     * of {@link PatternDatabase}.
+     *
+     * @param fileName
+     *            file to look at
+     * @return true if the file starts like a pocket cube table file
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    public static boolean isPocketTable(String fileName) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            return file.length() >= 4 && file.readInt() == MAGIC;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Maps a table written by {@link PatternDatabaseGenerator} into memory,
+     * and uses it from then on instead of building it. Must be done before
+     * solving.
+     *
+     * @param fileName
+     *            file to load the table from
+     * @return the loaded table
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    public static synchronized PocketTable load(String fileName)
+            throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            if (file.length() < 8 || file.readInt() != MAGIC) {
+                throw new IOException(fileName
+                        + " is not a pocket cube table file");
+            }
+            int entries = file.readInt();
+            if (entries != ENTRIES) {
+                throw new IOException("pocket cube table has " + entries
+                        + " entries instead of " + ENTRIES);
+            }
+            if (8 + 5L * entries > file.length()) {
+                throw new IOException(fileName + " is too short");
+            }
+
+            // the mapping stays valid once the file is closed
+            table = new PocketTable(file.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 8, 5L * entries));
+        } finally {
+            file.close();
+        }
+        return table;
+    }
+
+    /**
+     * Writes the table to a file, to be loaded with {@link #load(String)}.
+     *
+     * @param fileName
+     *            file to write to
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public void write(String fileName) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(fileName)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(ENTRIES);
+            for (int i = 0; i < 5 * ENTRIES; i++) {
+                out.writeByte(data.get(i));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Describes the corners and the twists, and fills the table if no data is
+     * given.
+     */
+    private PocketTable(ByteBuffer data) {
+        MoveTable table = MoveTable.get(SIZE);
+        corners = ParityTable.get(SIZE);
+        moves = table.getMoves();
+
+        // the elements of a corner in the order of its orientation: first the
+        // one on the top or bottom side, then round the corner the same way
+        // for every position. Seen from outside the cube, the elements of
+        // the positions with an even number of second sides are in mirrored
+        // order
+        for (int position = 0; position < CORNERS; position++) {
+            if (Integer.bitCount(position) % 2 == 0) {
+                slots[position] = new int[] { 1, 0, 2 };
+            } else {
+                slots[position] = new int[] { 1, 2, 0 };
+            }
+        }
+
+        // corner and orientation of each element
+        int elements = Cube.SIDES * SIZE * SIZE;
+        int[] cornerOf = new int[elements];
+        int[] orientationOf = new int[elements];
+        for (int position = 0; position < CORNERS; position++) {
+            for (int orientation = 0; orientation < 3; orientation++) {
+                int element = corners.cornerElements[position][slots[position][orientation]];
+                cornerOf[element] = position;
+                orientationOf[element] = orientation;
+            }
+        }
+
+        // where each twist takes the corner at each position, and how far it
+        // turns it
+        int[][] targets = new int[moves][CORNERS];
+        int[][] turns = new int[moves][CORNERS];
+        byte[] labels = new byte[elements];
+        byte[] moved = new byte[elements];
+        for (int element = 0; element < elements; element++) {
+            labels[element] = (byte) element;
+        }
+        for (int move = 0; move < moves; move++) {
+            table.apply(move, labels, moved);
+            int total = 0;
+            for (int position = 0; position < CORNERS; position++) {
+                for (int orientation = 0; orientation < 3; orientation++) {
+                    int from = moved[corners.cornerElements[position][slots[position][orientation]]];
+                    int turn = (orientation - orientationOf[from] + 3) % 3;
+                    if (orientation > 0
+                            && (targets[move][cornerOf[from]] != position || turns[move][cornerOf[from]] != turn)) {
+                        throw new Error("twist " + move
+                                + " does not move corners as a whole");
+                    }
+                    targets[move][cornerOf[from]] = position;
+                    turns[move][cornerOf[from]] = turn;
+                }
+                total += turns[move][position];
+            }
+            if (total % 3 != 0) {
+                throw new Error("twist " + move
+                        + " changes the sum of the orientations");
+            }
+        }
+
+        // the corner which no twist moves
+        int fixed = -1;
+        for (int position = 0; position < CORNERS; position++) {
+            boolean turned = false;
+            for (int move = 0; move < moves; move++) {
+                turned |= targets[move][position] != position
+                        || turns[move][position] != 0;
+            }
+            if (!turned) {
+                if (fixed >= 0) {
+                    throw new Error("more than one corner never moves");
+                }
+                fixed = position;
+            }
+        }
+        if (fixed < 0) {
+            throw new Error("no corner stays in place");
+        }
+        int count = 0;
+        for (int position = 0; position < CORNERS; position++) {
+            if (position == fixed) {
+                moving[position] = -1;
+            } else {
+                moving[position] = count;
+                positions[count++] = position;
+            }
+        }
+
+        permutationMoves = new int[PERMUTATIONS * moves];
+        int[] permutation = new int[MOVING];
+        int[] result = new int[MOVING];
+        for (int state = 0; state < PERMUTATIONS; state++) {
+            permutation(state, permutation);
+            for (int move = 0; move < moves; move++) {
+                for (int corner = 0; corner < MOVING; corner++) {
+                    result[moving[targets[move][positions[corner]]]] = permutation[corner];
+                }
+                permutationMoves[state * moves + move] = permutationRank(result);
+            }
+        }
+
+        orientationMoves = new int[ORIENTATIONS * moves];
+        int[] orientations = new int[MOVING];
+        for (int state = 0; state < ORIENTATIONS; state++) {
+            orientations(state, orientations);
+            for (int move = 0; move < moves; move++) {
+                for (int corner = 0; corner < MOVING; corner++) {
+                    int position = positions[corner];
+                    result[moving[targets[move][position]]] = (orientations[corner] + turns[move][position]) % 3;
+                }
+                orientationMoves[state * moves + move] = orientationRank(result);
+            }
+        }
+
+        if (data == null) {
+            data = generate(Runtime.getRuntime().availableProcessors());
+        }
+        this.data = data;
+    }
+
+    /**
+     * Returns the index of a cube in this table.
+     *
+     * @param cube
+     *            cube of size 2
+     * @return the index of the cube
+     */
+    public int index(Cube cube) {
+        if (cube.getSize() != SIZE) {
+            throw new Error("pocket cube table used for cube of size "
+                    + cube.getSize());
+        }
+        byte[] homeSide = corners.homeSides(cube);
+        int[] sides = new int[3];
+        int[] permutation = new int[MOVING];
+        int[] orientations = new int[MOVING];
+        for (int corner = 0; corner < MOVING; corner++) {
+            int[] elements = corners.cornerElements[positions[corner]];
+            for (int i = 0; i < 3; i++) {
+                sides[i] = homeSide[cube.getColor(elements[i])];
+            }
+            Integer home = corners.homes.get(ParityTable.bits(sides));
+            if (home == null || moving[home] < 0) {
+                throw new Error("cube contains a corner that does not exist");
+            }
+            permutation[corner] = moving[home];
+
+            int[] order = slots[positions[corner]];
+            for (int orientation = 0; orientation < 3; orientation++) {
+                int side = sides[order[orientation]];
+                if (side == Cube.TOP || side == Cube.BOTTOM) {
+                    orientations[corner] = orientation;
+                }
+            }
+        }
+        return permutationRank(permutation) * ORIENTATIONS
+                + orientationRank(orientations);
+    }
+
+    /**
+     * Returns the number of twists needed to solve a cube.
+     *
+     * @param index
+     *            index of the cube, see {@link #index(Cube)}
+     * @return the number of twists needed
+     */
+    public int distance(int index) {
+        return data.get(index) & 0xff;
+    }
+
+    /**
+     * Returns the number of shortest twist sequences solving a cube.
+     *
+     * @param index
+     *            index of the cube, see {@link #index(Cube)}
+     * @return the number of shortest sequences
+     */
+    public int solutions(int index) {
+        return data.getInt(ENTRIES + 4 * index);
+    }
+
+    // *** Only private functions ahead. ***\\
+
+    /**
+     * Runs the breadth first search filling the table.
+     */
+    private ByteBuffer generate(int threads) {
+        final byte[] distances = new byte[ENTRIES];
+        final int[] counts = new int[ENTRIES];
+        Arrays.fill(distances, (byte) UNKNOWN);
+        distances[0] = 0; // the solved cube
+        counts[0] = 1;
+
+        // levels smaller than this are expanded by twisting their entries
+        int small = ENTRIES / 64;
+
+        int size = 1; // entries in the last level
+        for (int depth = 0; size > 0; depth++) {
+            if (depth + 1 >= UNKNOWN) {
+                throw new Error("pocket cube too far from solved to store");
+            }
+            if (size < small) {
+                size = expandSmall(distances, counts, depth);
+            } else {
+                size = expand(distances, counts, depth, Math.max(threads, 1));
+            }
+        }
+
+        ByteBuffer result = ByteBuffer.allocate(5 * ENTRIES);
+        result.put(distances);
+        result.asIntBuffer().put(counts);
+        return result;
+    }
+
+    /**
+     * Expands a small level by twisting each of its entries. Returns the
+     * number of entries reached.
+     */
+    private int expandSmall(byte[] distances, int[] counts, int depth) {
+        int result = 0;
+        for (int index = 0; index < ENTRIES; index++) {
+            if ((distances[index] & 0xff) != depth) {
+                continue;
+            }
+            for (int move = 0; move < moves; move++) {
+                int neighbour = neighbour(index, move);
+                int distance = distances[neighbour] & 0xff;
+                if (distance == UNKNOWN) {
+                    distances[neighbour] = (byte) (depth + 1);
+                    counts[neighbour] = counts[index];
+                    result++;
+                } else if (distance == depth + 1) {
+                    counts[neighbour] = sum((long) counts[neighbour]
+                            + counts[index]);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Expands a level with all threads. Returns the number of entries
+     * reached.
+     */
+    private int expand(final byte[] distances, final int[] counts,
+            final int depth, final int threads) {
+        final int[] reached = new int[threads];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int thread = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    reached[thread] = expand(distances, counts, depth,
+                            threads, thread);
+                }
+            };
+            workers[i].start();
+        }
+
+        int result = 0;
+        for (int i = 0; i < threads; i++) {
+            try {
+                workers[i].join();
+            } catch (InterruptedException e) {
+                throw new Error("interrupted while generating", e);
+            }
+            result += reached[i];
+        }
+        return result;
+    }
+
+    /**
+     * Finds the entries reached in the parts of one thread: every threads-th
+     * part. An entry is reached if a twist takes it into the last level, by as
+     * many sequences as lead to all such entries together. Each thread only
+     * writes its own entries, and entries written get the next distance, which
+     * other threads do not look for.
+     */
+    private int expand(byte[] distances, int[] counts, int depth,
+            int threads, int thread) {
+        int result = 0;
+        for (int start = thread * PART; start < ENTRIES; start += threads
+                * PART) {
+            int end = Math.min(start + PART, ENTRIES);
+            for (int index = start; index < end; index++) {
+                if ((distances[index] & 0xff) != UNKNOWN) {
+                    continue;
+                }
+                long sequences = 0;
+                for (int move = 0; move < moves; move++) {
+                    int neighbour = neighbour(index, move);
+                    if ((distances[neighbour] & 0xff) == depth) {
+                        sequences += counts[neighbour];
+                    }
+                }
+                if (sequences > 0) {
+                    distances[index] = (byte) (depth + 1);
+                    counts[index] = sum(sequences);
+                    result++;
+                }
+            }
+        }
+        return result;
+    }
+
+    private int neighbour(int index, int move) {
+        return permutationMoves[(index / ORIENTATIONS) * moves + move]
+                * ORIENTATIONS
+                + orientationMoves[(index % ORIENTATIONS) * moves + move];
+    }
+
+    private static int sum(long sequences) {
+        if (sequences > Integer.MAX_VALUE) {
+            throw new Error("too many sequences to store: " + sequences);
+        }
+        return (int) sequences;
+    }
+
+    /**
+     * Returns the rank of a permutation of the moving corners, among all
+     * permutations in lexicographic order.
+     */
+    private static int permutationRank(int[] permutation) {
+        int result = 0;
+        for (int i = 0; i < MOVING; i++) {
+            int smaller = 0;
+            for (int j = i + 1; j < MOVING; j++) {
+                if (permutation[j] < permutation[i]) {
+                    smaller++;
+                }
+            }
+            result = result * (MOVING - i) + smaller;
+        }
+        return result;
+    }
+
+    /**
+     * Finds the permutation of a rank, see {@link #permutationRank(int[])}.
+     */
+    private static void permutation(int rank, int[] permutation) {
+        int[] digits = new int[MOVING];
+        for (int i = MOVING - 1; i >= 0; i--) {
+            digits[i] = rank % (MOVING - i);
+            rank /= MOVING - i;
+        }
+        boolean[] used = new boolean[MOVING];
+        for (int i = 0; i < MOVING; i++) {
+            int corner = 0;
+            for (int skip = digits[i];; corner++) {
+                if (!used[corner]) {
+                    if (skip == 0) {
+                        break;
+                    }
+                    skip--;
+                }
+            }
+            used[corner] = true;
+            permutation[i] = corner;
+        }
+    }
+
+    /**
+     * Returns the orientations of the first six moving corners as a number in
+     * base 3. Checks the last one follows from them.
+     */
+    private static int orientationRank(int[] orientations) {
+        int result = 0;
+        int total = 0;
+        for (int i = MOVING - 2; i >= 0; i--) {
+            result = result * 3 + orientations[i];
+            total += orientations[i];
+        }
+        if ((total + orientations[MOVING - 1]) % 3 != 0) {
+            throw new Error("corner orientations do not add up");
+        }
+        return result;
+    }
+
+    /**
+     * Finds the orientations of a rank, see {@link #orientationRank(int[])}.
+     */
+    private static void orientations(int rank, int[] orientations) {
+        int total = 0;
+        for (int i = 0; i < MOVING - 1; i++) {
+            orientations[i] = rank % 3;
+            total += orientations[i];
+            rank /= 3;
+        }
+        orientations[MOVING - 1] = (3 - total % 3) % 3;
+    }
+}
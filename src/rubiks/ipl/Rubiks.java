@@ -22,12 +22,17 @@ public class Rubiks implements MessageUpcall {
     PortType.SERIALIZATION_OBJECT, PortType.RECEIVE_AUTO_UPCALLS,
     PortType.CONNECTION_MANY_TO_ONE);
 
+    PortType cubePortType = new PortType(PortType.COMMUNICATION_RELIABLE,
+    PortType.SERIALIZATION_DATA, PortType.RECEIVE_AUTO_UPCALLS,
+    PortType.CONNECTION_MANY_TO_ONE);
+
     IbisCapabilities ibisCapabilities = new IbisCapabilities(
-    IbisCapabilities.ELECTIONS_STRICT, IbisCapabilities.CLOSED_WORLD);
+    IbisCapabilities.ELECTIONS_STRICT, IbisCapabilities.CLOSED_WORLD,
+    IbisCapabilities.MEMBERSHIP_TOTALLY_ORDERED);
 
     public static final boolean PRINT_SOLUTION = false;
 
-    private ArrayList<Cube> jobQueue;
+    private ArrayList<PackedCube> jobQueue;
     private HashMap<IbisIdentifier, SendPort> workers;
     private boolean queueReady;
     private Object queueLock = new Object();
@@ -36,6 +41,32 @@ public class Rubiks implements MessageUpcall {
     private boolean solved;
     private AtomicInteger activeWorkers;
 	private AtomicInteger solutions;
+    // generate code for the twists of the cube size being solved
+    private boolean generateKernel = false;
+    // twist with SIMD instructions
+    private boolean useVectors = false;
+    // smallest estimate over the bound of all jobs of the current iteration,
+    // the bound of the next iteration. Guarded by this
+    private int smallestExceeded;
+    // smallest estimate over the bound seen by solutions() in the current
+    // job, only used by the thread solving jobs
+    private static int nextBound;
+    // depth of the perimeter table, 0 to search without one
+    private int perimeterDepth = PerimeterTable.AUTOMATIC;
+    // cubes close to solved, see perimeterSolutions(). Null if not used,
+    // only used by the thread solving jobs
+    private static PerimeterTable perimeter;
+    // size of the transposition table in megabytes, 0 to search without one
+    private int transpositionMemory = TranspositionTable.DEFAULT_MEMORY;
+    // solutions of the cubes searched before, see solutions(). Null if not
+    // used, shared by all threads solving jobs in this JVM
+    private static TranspositionTable transpositions;
+    // centers of 4x4x4 cubes, see solutions(). Null if not used, only used
+    // by the thread solving jobs
+    private static CenterDatabase centers;
+    // count the cubes at each distance from solved instead of solving, up to
+    // this distance (0 for all), see BreadthFirstEnumeration. -1 to solve
+    private int enumerateDepth = -1;
 
     private void generateJobs(Cube cube, boolean moreJobs) {
 		Cube[] cubes, children;
@@ -48,10 +79,11 @@ public class Rubiks implements MessageUpcall {
     	if (moreJobs){
         	for (Cube child : cubes) {
         		children = child.generateChildren(cache);
-        		jobQueue.addAll(Arrays.asList(children));
+        		addJobs(children, cache);
+        		cache.put(child);
     		}
     	} else {
-        	jobQueue.addAll(Arrays.asList(cubes));
+        	addJobs(cubes, cache);
     	}
     	
         // unlock threads (worker requests) waiting for the queue
@@ -61,6 +93,16 @@ public class Rubiks implements MessageUpcall {
 	    } 
     }
     
+    /* Queue cubes in their packed form, the cube objects go back in the cache */
+    private void addJobs(Cube[] cubes, CubeCache cache) {
+    	synchronized (jobQueue) {
+    		for (Cube cube : cubes) {
+    			jobQueue.add(cube.pack());
+    			cache.put(cube);
+    		}
+    	}
+    }
+
     private void master(int size, int twists, int seed, String fileName) throws IOException {
        // System.out.println("I am the master");
         // initialize variables
@@ -71,7 +113,7 @@ public class Rubiks implements MessageUpcall {
         activeWorkers = new AtomicInteger(0);
         solved = false;
         workers = new HashMap<IbisIdentifier, SendPort>();
-    	jobQueue = new ArrayList<Cube>();
+    	jobQueue = new ArrayList<PackedCube>();
 
         // create cube
         if (fileName == null) {
@@ -118,10 +160,45 @@ public class Rubiks implements MessageUpcall {
     }
 
 
+    private void enumerate(int size, int twists, int seed, String fileName,
+            boolean isMaster) throws IOException {
+        // every machine creates the cube, to find its distance
+        Cube cube = null;
+        if (fileName == null) {
+            cube = new Cube(size, twists, seed);
+        } else {
+            try {
+                cube = new Cube(fileName);
+            } catch (Exception e) {
+                System.err.println("Cannot load cube from file: " + e);
+                System.exit(1);
+            }
+        }
+
+        if (isMaster) {
+            System.out.println("Searching for distance of cube of size "
+                    + cube.getSize() + ", twists = " + twists + ", seed = "
+                    + seed);
+            cube.print(System.out);
+            System.out.flush();
+        }
+
+        long start = System.currentTimeMillis();
+        new BreadthFirstEnumeration(ibis, cubePortType, isMaster).run(cube,
+                enumerateDepth);
+        long end = System.currentTimeMillis();
+
+        if (isMaster) {
+            System.err.println("Enumerating cubes took " + (end - start)
+                    + " milliseconds");
+        }
+    }
+
     /* Function called by Ibis to give us a newly arrived message.*/
     public void upcall(ReadMessage message) throws IOException, ClassNotFoundException {
     	SendPort sendReplyPort;
         int result = message.readInt();
+        int exceeded = message.readInt();
         IbisIdentifier worker = message.origin().ibisIdentifier();
 
         // Finish message, so ibis can call this function again
@@ -131,6 +208,7 @@ public class Rubiks implements MessageUpcall {
         if(result != -1){
         	synchronized (this) {
 				solutions.addAndGet(result);
+				smallestExceeded = Math.min(smallestExceeded, exceeded);
 				// Decrease the number of workers the master has to wait for
 				activeWorkers.decrementAndGet();
 				// notify the master
@@ -158,7 +236,7 @@ public class Rubiks implements MessageUpcall {
         // create a reply message
         WriteMessage replyMessage = sendReplyPort.newMessage();
 
-        Cube workerCube = null;
+        PackedCube workerCube = null;
 
         if(!solved) {
 	        while (workerCube == null){
@@ -199,6 +277,7 @@ public class Rubiks implements MessageUpcall {
      private void worker(IbisIdentifier master) throws IOException {
         //System.out.println("I am a worker");
         int result = -1;
+        int exceeded = Integer.MAX_VALUE;
         // Create a send port for sending requests and connect.
         SendPort sendRequestPort = ibis.createSendPort(requestPortType);
         sendRequestPort.connect(master, "master");
@@ -206,20 +285,22 @@ public class Rubiks implements MessageUpcall {
         // Create a receive port for receiving replies from the master
         ReceivePort receiveReplyPort = ibis.createReceivePort(replyPortType, "reply");
         receiveReplyPort.enableConnections();
+        Cube myCube = null;
         while(true){
 	        // Send request to master with identifier for receive port so the
 	        // master knows where to send the reply to
 	        WriteMessage request = sendRequestPort.newMessage();
 	        request.writeInt(result);
+	        request.writeInt(exceeded);
 	        request.finish();
 
 	        // Get reply from master
 	        ReadMessage reply = receiveReplyPort.receive();
 
 	        // Get cube from reply
-	        Cube myCube = null;
+	        PackedCube packedCube = null;
 	        try {
-	            myCube = (Cube) reply.readObject();
+	            packedCube = (PackedCube) reply.readObject();
 	           // System.out.println("Received a cube!");
 	        } catch (ClassNotFoundException e) {
 	            e.printStackTrace();
@@ -227,17 +308,21 @@ public class Rubiks implements MessageUpcall {
 
 	        reply.finish();
 
-	       	// If myCube equals null, we are done and we can close the connection
-	        if(myCube == null){
+	       	// If packedCube equals null, we are done and we can close the connection
+	        if(packedCube == null){
 				// Close ports
 				sendRequestPort.close();
 				receiveReplyPort.close();	
 	            return;
 	        }
 
-	        /* solve my cube */
-	        CubeCache cache = new CubeCache(myCube.getSize());
-        	result = solutions(myCube, cache);
+	        /* solve my cube, reusing the working cube of the previous job */
+	        if (myCube == null || myCube.getSize() != packedCube.getSize()) {
+	        	myCube = new Cube(packedCube.getSize());
+	        }
+	        myCube.unpack(packedCube);
+        	result = solveJob(myCube);
+        	exceeded = nextBound;
         }
 
      }
@@ -265,6 +350,45 @@ public class Rubiks implements MessageUpcall {
             } else if (arguments[i].equalsIgnoreCase("--file")) {
                 i++;
                 fileName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--kernel")) {
+                generateKernel = true;
+            } else if (arguments[i].equalsIgnoreCase("--vector")) {
+                useVectors = true;
+            } else if (arguments[i].equalsIgnoreCase("--fsm")) {
+                // every machine loads the same table, jobs refer to its
+                // states
+                i++;
+                try {
+                    SequenceTable.load(arguments[i]);
+                } catch (Exception e) {
+                    System.err.println("Cannot load sequence table: " + e);
+                    System.exit(1);
+                }
+            } else if (arguments[i].equalsIgnoreCase("--perimeter")) {
+                i++;
+                perimeterDepth = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--transpositions")) {
+                i++;
+                transpositionMemory = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--enumerate")) {
+                i++;
+                enumerateDepth = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--pdb")) {
+                // every machine maps the file, instead of building the
+                // databases itself
+                i++;
+                try {
+                    if (CenterDatabase.isCenterDatabase(arguments[i])) {
+                        CenterDatabase.load(arguments[i]);
+                    } else if (PocketTable.isPocketTable(arguments[i])) {
+                        PocketTable.load(arguments[i]);
+                    } else {
+                        PatternDatabase.load(arguments[i]);
+                    }
+                } catch (Exception e) {
+                    System.err.println("Cannot load pattern databases: " + e);
+                    System.exit(1);
+                }
             } else if (arguments[i].equalsIgnoreCase("--help") || arguments[i].equalsIgnoreCase("-h")) {
                 printUsage();
                 System.exit(0);
@@ -276,7 +400,7 @@ public class Rubiks implements MessageUpcall {
         }
         
         // Create an ibis instance.
-        ibis = IbisFactory.createIbis(ibisCapabilities, null, replyPortType, requestPortType);
+        ibis = IbisFactory.createIbis(ibisCapabilities, null, replyPortType, requestPortType, cubePortType);
 
         // Wait until all machines joined the pool
         ibis.registry().waitUntilPoolClosed();
@@ -284,8 +408,11 @@ public class Rubiks implements MessageUpcall {
         // Elect a master
         IbisIdentifier master = ibis.registry().elect("master");
 
-        // If I am the master, run master, else run worker.
-        if (master.equals(ibis.identifier())) {
+        // If I am the master, run master, else run worker. All machines
+        // enumerate together
+        if (enumerateDepth >= 0) {
+           enumerate(size, twists, seed, fileName, master.equals(ibis.identifier()));
+        } else if (master.equals(ibis.identifier())) {
            master(size, twists, seed, fileName);
         } else {
            worker(master);
@@ -297,45 +424,337 @@ public class Rubiks implements MessageUpcall {
 
     /**
      * Recursive function to find a solution for a given cube. Only searches to
-     * the bound set in the cube object.
+     * the bound set in the cube object. Twists the cube in place, and undoes
+     * each twist before trying the next one, so the cube is unchanged when
+     * this function returns. Only tries the twist sequences in the sequence
+     * table, and weighs the solutions found so every solution is counted.
+     * Skips cubes which cannot be solved within the bound according to their
+     * lower bound (IDA*), and keeps track of the bound the next iteration
+     * needs in nextBound.
      * 
      * @param cube
      *            cube to solve
-     * @param cache
-     *            cache of cubes used for new cube objects
+     * @param moves
+     *            precomputed twists for cubes of this size
+     * @param sequences
+     *            twist sequences to try for cubes of this size
+     * @param sequence
+     *            state of the twists the cube is a result of
      * @return the number of solutions found
      */
-    private static int solutions(Cube cube, CubeCache cache) {
+    private static int solutions(Cube cube, MoveTable moves,
+            SequenceTable sequences, int sequence) {
         if (cube.isSolved()) {
-            return 1;
+            return sequences.runWeights[sequence];
         }
 
-        if (cube.getTwists() >= cube.getBound()) {
+        int estimate = cube.getTwists() + cube.lowerBound(moves, centers);
+        if (estimate > cube.getBound()) {
+            if (estimate < nextBound) {
+                nextBound = estimate;
+            }
             return 0;
         }
 
-        // generate all possible cubes from this one by twisting it in
-        // every possible way. Gets new objects from the cache
-        Cube[] children = cube.generateChildren(cache);
+        if (perimeter != null
+                && cube.getBound() - cube.getTwists() <= perimeter.getDepth()) {
+            return perimeterSolutions(cube, moves, sequences, sequence);
+        }
+
+        // a cube reached by another sequence before need not be searched
+        // again
+        int left = cube.getBound() - cube.getTwists();
+        boolean store = transpositions != null
+                && left >= TranspositionTable.MIN_DEPTH;
+        if (store) {
+            long entry = transpositions.get(cube.getFingerprint(), sequence,
+                    left);
+            if (entry != TranspositionTable.MISSING) {
+                found(entry, cube.getBound());
+                return TranspositionTable.count(entry);
+            }
+        }
 
         int result = 0;
+        int base = sequence * moves.getMoves();
+
+        // once the next bound is known to be one more than this one, the
+        // cubes at the bound need not be looked at one by one
+        if (cube.getTwists() + 1 == cube.getBound()
+                && nextBound == cube.getBound() + 1 && !PRINT_SOLUTION) {
+            // children are at the bound, so only need to know if they are
+            // solved. No need to actually twist the cube for that.
+            for (int move = 0; move < moves.getMoves(); move++) {
+                int weight = sequences.leafWeights[base + move];
+                if (weight != 0 && cube.isSolvedAfter(moves, move)) {
+                    result += weight;
+                }
+            }
+            return result;
+        }
+
+        // try all twists of this cube worth trying
+        for (int move = 0; move < moves.getMoves(); move++) {
+            int next = sequences.next[base + move];
+            if (next < 0) {
+                continue;
+            }
+
+            cube.apply(moves, move);
 
-        for (Cube child : children) {
             // recursion step
-            int childSolutions = solutions(child, cache);
+            int childSolutions = solutions(cube, moves, sequences, next);
             if (childSolutions > 0) {
-                result += childSolutions;
+                result += sequences.weights[base + move] * childSolutions;
                 if (PRINT_SOLUTION) {
-                    child.print(System.err);
+                    cube.print(System.err);
                 }
             }
-            // put child object in cache
-            cache.put(child);
+
+            cube.undo(moves, move);
+        }
+
+        if (store) {
+            transpositions.put(cube.getFingerprint(), sequence, left, result,
+                    over(cube.getBound()));
+        }
+        return result;
+    }
+
+    /**
+     * Counts the solutions of a cube close to the bound, with the
+     * {@link PerimeterTable}. Only a cube exactly as many twists from solved
+     * as left to the bound has solutions (a shorter solution would have been
+     * found with an earlier bound). Its shortest sequences not starting on
+     * the axis of the run of twists the cube is a result of end this run, so
+     * they count with the weight of the run. The sequences going on with the
+     * run are tried one by one, as the weight of the run depends on how it
+     * goes on. Needs a sequence table built from the rules, see
+     * {@link SequenceTable}.
+     * 
+     * @param cube
+     *            cube to solve, at most the depth of the table from the bound
+     * @param moves
+     *            precomputed twists for cubes of this size
+     * @param sequences
+     *            twist sequences to try for cubes of this size
+     * @param sequence
+     *            state of the twists the cube is a result of
+     * @return the number of solutions found
+     */
+    private static int perimeterSolutions(Cube cube, MoveTable moves,
+            SequenceTable sequences, int sequence) {
+        if (cube.isSolved()) {
+            return sequences.runWeights[sequence];
+        }
+
+        int slot = perimeter.find(cube.getFingerprint());
+        int distance = slot < 0 ? perimeter.getDepth() + 1 : perimeter
+                .distance(slot);
+        if (distance != cube.getBound() - cube.getTwists()) {
+            int estimate = cube.getTwists() + distance;
+            if (estimate > cube.getBound() && estimate < nextBound) {
+                nextBound = estimate;
+            }
+            return 0;
+        }
+
+        int axis = sequences.runAxes[sequence];
+        int result = sequences.runWeights[sequence]
+                * perimeter.solutions(slot, axis);
+        if (axis < 0) {
+            return result;
+        }
+
+        int base = sequence * moves.getMoves();
+        int axisMoves = 2 * (cube.getSize() - 1);
+        for (int move = axis * axisMoves; move < (axis + 1) * axisMoves; move++) {
+            int next = sequences.next[base + move];
+            if (next < 0) {
+                continue;
+            }
+
+            cube.apply(moves, move);
+            result += sequences.weights[base + move]
+                    * perimeterSolutions(cube, moves, sequences, next);
+            cube.undo(moves, move);
+        }
+
+        return result;
+    }
+
+    /**
+     * Same as {@link #solutions(Cube, MoveTable, SequenceTable, int)}, for the
+     * cubie form of a 3x3x3 cube, with the lower bounds of the
+     * {@link PatternDatabase}s.
+     * 
+     * @param cube
+     *            cube to solve
+     * @param sequences
+     *            twist sequences to try for cubes of size 3
+     * @param sequence
+     *            state of the twists the cube is a result of
+     * @return the number of solutions found
+     */
+    private static int solutions(CubieCube cube, SequenceTable sequences,
+            int sequence) {
+        if (cube.isSolved()) {
+            return sequences.runWeights[sequence];
+        }
+
+        // an unsolved cube needs at least one more twist
+        int estimate = cube.getTwists()
+                + Math.max(cube.lowerBound(cube.getBound() - cube.getTwists()), 1);
+        if (estimate > cube.getBound()) {
+            if (estimate < nextBound) {
+                nextBound = estimate;
+            }
+            return 0;
+        }
+
+        // once the next bound is known to be one more than this one, the
+        // cubes below the bound need not be looked at one by one
+        if (nextBound == cube.getBound() + 1) {
+            if (cube.getTwists() + 1 == cube.getBound()) {
+                return sequences.leafSolutions(sequence, cube.solvingMoves());
+            }
+
+            if (cube.getTwists() + 2 == cube.getBound()) {
+                // evaluate the last two twists for all children at once
+                return cube.countSolutionsWithinTwo(sequences, sequence);
+            }
+        }
+
+        int left = cube.getBound() - cube.getTwists();
+        boolean store = transpositions != null
+                && left >= TranspositionTable.MIN_DEPTH;
+        long key = 0;
+        if (store) {
+            key = (long) sequence << 32 | cube.getCornerKey();
+            long entry = transpositions.get(cube.getEdgeKey(), key, left);
+            if (entry != TranspositionTable.MISSING) {
+                found(entry, cube.getBound());
+                return TranspositionTable.count(entry);
+            }
+        }
+
+        int result = 0;
+        for (int move = 0; move < cube.getMoves(); move++) {
+            int next = sequences.next(sequence, move);
+            if (next >= 0) {
+                cube.apply(move);
+                result += sequences.weight(sequence, move)
+                        * solutions(cube, sequences, next);
+                cube.undo(move);
+            }
         }
 
+        if (store) {
+            transpositions.put(cube.getEdgeKey(), key, left, result,
+                    over(cube.getBound()));
+        }
         return result;
     }
 
+    /**
+     * Sets the next bound for a cube found in the transposition table, as
+     * searching it would have.
+     * 
+     * @param entry
+     *            entry of the cube in the table
+     * @param bound
+     *            bound of the current iteration
+     */
+    private static void found(long entry, int bound) {
+        int over = TranspositionTable.over(entry);
+        if (over != TranspositionTable.NONE && bound + over < nextBound) {
+            nextBound = bound + over;
+        }
+    }
+
+    /**
+     * Returns how far over the bound the next bound is, to be stored in the
+     * transposition table with a cube searched. The next bound only goes down,
+     * so the smallest estimate over the bound seen while searching the cube is
+     * at least this.
+     * 
+     * @param bound
+     *            bound of the current iteration
+     * @return the next bound minus the bound, or TranspositionTable.NONE
+     */
+    private static int over(int bound) {
+        if (nextBound == Integer.MAX_VALUE) {
+            return TranspositionTable.NONE;
+        }
+        return nextBound - bound;
+    }
+
+    /**
+     * Counts the solutions of a job. A 3x3x3 cube is twisted much faster in
+     * its cubie form, but solutions can only be printed in the element form.
+     * 
+     * @param job
+     *            cube to solve, with its bound set
+     * @return the number of solutions found, times the weight of the job.
+     *         The bound the next iteration needs is left in nextBound.
+     */
+    private int solveJob(Cube job) {
+        SequenceTable sequences = SequenceTable.get(job.getSize());
+        MoveTable moves = MoveTable.get(job.getSize());
+        if (generateKernel) {
+            moves.generateKernel();
+        }
+        if (useVectors) {
+            moves.useVectors();
+        }
+        nextBound = Integer.MAX_VALUE;
+        boolean tables = needsTables(job, moves);
+
+        // jobs of a cube share the table, entries of one job stay valid for
+        // the others
+        transpositions = null;
+        if (tables && transpositionMemory != 0 && !PRINT_SOLUTION) {
+            transpositions = TranspositionTable.get(job.getSize(),
+                    transpositionMemory);
+        }
+        centers = null;
+        if (tables && job.getSize() == CenterDatabase.SIZE) {
+            centers = CenterDatabase.get();
+        }
+        if (tables && job.getSize() == CubieTable.SIZE && !PRINT_SOLUTION) {
+            return job.getWeight()
+                    * solutions(new CubieCube(job), sequences,
+                            job.getSequence());
+        }
+        // look up the cubes close to the bound, if the weights of the
+        // sequences tried are known. Jobs of a cube share its table
+        perimeter = null;
+        if (tables && perimeterDepth != 0 && !PRINT_SOLUTION
+                && sequences.runAxes != null) {
+            perimeter = PerimeterTable.get(job, perimeterDepth);
+        }
+        return job.getWeight()
+                * solutions(job, moves, sequences, job.getSequence());
+    }
+
+    /**
+     * Returns if searching a cube within its bound is worth building the
+     * tables of the search: the pattern or center databases, perimeter and
+     * transposition table. Not if its misplaced elements leave at most one
+     * twist to spare, as then nearly every twist tried has to put as many
+     * elements in place as a twist can, and the search ends quickly without
+     * them. So cubes a few twists from solved need no tables at all.
+     * 
+     * @param cube
+     *            cube to search, with its bound set
+     * @param moves
+     *            precomputed twists for cubes of this size
+     * @return true if the tables should be used
+     */
+    private static boolean needsTables(Cube cube, MoveTable moves) {
+        return cube.getBound() - cube.getTwists() > cube.lowerBound(moves) + 1;
+    }
+
     /**
      * Solves a Rubik's cube by iteratively searching for solutions with a
      * greater depth. This guarantees the optimal solution is found. Repeats all
@@ -345,25 +764,82 @@ public class Rubiks implements MessageUpcall {
      *            the cube to solve
      */
     private void solve(Cube cube) {
+        // every cube of size 2 is in a table, no need to hand out jobs. The
+        // table counts all twist sequences though, not only those of --fsm
+        if (cube.getSize() == PocketTable.SIZE && !PRINT_SOLUTION
+                && cube.getSequence() == SequenceTable.START
+                && SequenceTable.get(cube.getSize()).runAxes != null) {
+            solveFromTable(cube);
+            queueReady = true;
+            solved = true;
+            return;
+        }
+
+        // a solved cube is found at the first bound, before any twist. Its
+        // children as jobs would only find the sequences undoing themselves,
+        // which are never tried
+        if (cube.isSolved()) {
+            solutions.set(SequenceTable.get(cube.getSize()).runWeights[cube
+                    .getSequence()] * cube.getWeight());
+            queueReady = true;
+            solved = true;
+            System.out.println("Bound now: 1");
+            System.out.println("Solving cube possible in " + solutions.get()
+                    + " ways of 1 steps");
+            return;
+        }
+
         int bound = 0;
         boolean moreJobs;
+        MoveTable moves = MoveTable.get(cube.getSize());
+        // the tables are built once a bound needs them, see needsTables()
+        boolean tables = false;
+        // first bound which can have a solution
+        int next = Math.max(cube.lowerBound(moves), 1);
+        // every twist changes the parity of the cube, so only bounds of that
+        // parity can have a solution (a solved cube is found at any bound)
+        int parity = cube.getParity();
         System.out.print("Bound now:");
 
         while (solutions.get() == 0) {
         	moreJobs = false;
         	queueReady = false;
-	       	bound++;
+            // bounds skipped cannot have a solution. They are printed anyway,
+            // so the output does not depend on the lower bounds used
+            while (bound < next
+                    || (bound % 2 != parity && !cube.isSolved())) {
+                bound++;
+                System.out.print(" " + bound);
+            }
             cube.setBound(bound);
+            // the tables may prove this bound too small as well
+            if (!tables && needsTables(cube, moves)) {
+                tables = true;
+                if (cube.getSize() == CubieTable.SIZE && !PRINT_SOLUTION) {
+                    next = Math.max(new CubieCube(cube).lowerBound(), bound);
+                    continue;
+                }
+                if (cube.getSize() == CenterDatabase.SIZE) {
+                    next = Math.max(cube.lowerBound(moves,
+                            CenterDatabase.get()), bound);
+                    continue;
+                }
+            }
             if (bound > 1) {
             	moreJobs = true;
             } 
+            synchronized (this) {
+                smallestExceeded = Integer.MAX_VALUE;
+            }
             generateJobs(cube, moreJobs);
-        	System.out.print(" " + bound);
 
-        	Cube myCube = null;
+        	PackedCube myCube = null;
+        	// working cube, twisted in place by solutions()
+        	Cube job = new Cube(cube.getSize());
 
         	// master will also solve cubes from queue
         	while (queueReady){
+        		myCube = null;
 	        	synchronized (jobQueue) {
 			        try { 
 			            myCube = jobQueue.remove(jobQueue.size() - 1);
@@ -372,10 +848,16 @@ public class Rubiks implements MessageUpcall {
 			            queueReady = false;  
 			        } 
 		        }
+	        	if (myCube == null) {
+	        		break;
+	        	}
 	        	/* solve my cube */
-		        CubeCache cache = new CubeCache(myCube.getSize());
-	        	int result = solutions(myCube, cache);
+		        job.unpack(myCube);
+	        	int result = solveJob(job);
 	        	solutions.addAndGet(result);
+	        	synchronized (this) {
+	        		smallestExceeded = Math.min(smallestExceeded, nextBound);
+	        	}
        		}	
 
        		// queue is empty, wait for all results from workers
@@ -386,6 +868,7 @@ public class Rubiks implements MessageUpcall {
 					} catch (Exception e) {
 					}
 				}
+        		next = smallestExceeded;
         	}
         }
         queueReady = true;  
@@ -395,6 +878,28 @@ public class Rubiks implements MessageUpcall {
                 + bound + " steps");
     }
 
+    /**
+     * Same as {@link #solve(Cube)}, but looks up the number of twists and
+     * solutions of a cube of size 2 in the {@link PocketTable}. Prints the
+     * same output.
+     */
+    private static void solveFromTable(Cube cube) {
+        PocketTable table = PocketTable.get();
+        int index = table.index(cube);
+
+        // a solved cube is found at the first bound
+        int bound = Math.max(table.distance(index), 1);
+        int result = table.solutions(index) * cube.getWeight();
+
+        System.out.print("Bound now:");
+        for (int i = 1; i <= bound; i++) {
+            System.out.print(" " + i);
+        }
+        System.out.println();
+        System.out.println("Solving cube possible in " + result + " ways of "
+                + bound + " steps");
+    }
+
     public static void printUsage() {
         System.out.println("Rubiks Cube solver");
         System.out.println("");
@@ -413,6 +918,20 @@ public class Rubiks implements MessageUpcall {
                 .println("--seed SEED\t\tSeed of random generator (default: 0");
         System.out
                 .println("--threads THREADS\t\tNumber of threads to use (default: 1, other values not supported by sequential version)");
+        System.out
+                .println("--kernel\t\tGenerate code for the twists of this size (needs asm)");
+        System.out
+                .println("--vector\t\tTwist with SIMD instructions (needs java 16+, --add-modules jdk.incubator.vector)");
+        System.out
+                .println("--fsm FILE_NAME\t\tOnly try the twist sequences in this table (see SequenceGenerator). Cubes of size 2 are then searched instead of looked up");
+        System.out
+                .println("--perimeter DEPTH\t\tLook up the cubes this close to the bound (default: as close as fits in a table of 2^16 cubes, 0 for none). Not used with --fsm");
+        System.out
+                .println("--transpositions MEGABYTES\t\tRemember the solutions of the cubes searched in a table this large (default: 64, 0 for none)");
+        System.out
+                .println("--enumerate DEPTH\t\tInstead of solving, count the cubes at each distance from solved up to DEPTH twists (0 for all), with all machines. Every machine needs the cube file, if any");
+        System.out
+                .println("--pdb FILE_NAME\t\tMap pattern databases from this file: those of size 3, the centers of size 4, or the table of all cubes of size 2 (see PatternDatabaseGenerator). Can be given for each");
         System.out.println("");
         System.out
                 .println("--file FILE_NAME\t\tLoad cube from given file instead of generating it");
@@ -0,0 +1,337 @@
+package rubiks.ipl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tool generating a {@link SequenceTable} for one cube size, to be loaded by
+ * the solver (option --fsm). Twists all sequences of twists up to some
+ * length, and remembers the shortest length each resulting cube is reached
+ * with. A sequence resulting in a cube also reached by a shorter sequence is
+ * never part of an optimal solution, and neither is any sequence containing
+ * it. The table only allows sequences not containing such a sequence.
+ *
+ * Sequences are twisted on a cube of "labels", every element holding the
+ * number of the element it started out at, so two sequences result in the
+ * same cube only if they move every element the same way. Only sequences
+ * already allowed by the rules of the sequence table are tried, and solutions
+ * are weighed the same way, so the search still counts every solution.
+ *
+ * The sequences not worth trying are kept in a trie, which is turned into an
+ * automaton finding them anywhere in a sequence (Aho-Corasick). A state of
+ * the generated table is a pair of a state of the rules and a state of this
+ * automaton.
+ *
+ */
+public final class SequenceGenerator {
+
+    private final MoveTable moves;
+
+    private final SequenceTable rules;
+
+    private final byte[] labels;
+
+    private final int[] sequence; // sequence being twisted
+
+    // for each cube reached, the length of the shortest sequence reaching it
+    private final Map<ByteBuffer, Integer> lengths = new HashMap<ByteBuffer, Integer>();
+
+    // trie of the sequences not worth trying, children of node n at index
+    // n * moves + move, 0 if none (node 0 is the root)
+    private int[] children;
+
+    private boolean[] ends; // node ends a sequence not worth trying
+
+    private int nodes;
+
+    // automaton made from the trie, see automaton()
+    private int[] transitions;
+
+    private boolean[] found;
+
+    private int foundSequences; // sequences not worth trying found
+
+    private SequenceGenerator(int size, int length) {
+        if (Cube.SIDES * size * size > 256) {
+            throw new Error("cannot label the elements of a cube of size "
+                    + size);
+        }
+
+        moves = MoveTable.get(size);
+        rules = SequenceTable.get(size);
+
+        labels = new byte[Cube.SIDES * size * size];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = (byte) i;
+        }
+        sequence = new int[length];
+
+        children = new int[moves.getMoves()];
+        ends = new boolean[1];
+        nodes = 1;
+    }
+
+    /**
+     * Twists all sequences of one length not containing a sequence found not
+     * worth trying so far.
+     */
+    private void generate(int length) {
+        automaton();
+        int before = foundSequences;
+        int count = twist(0, length, SequenceTable.START, 0);
+
+        System.out.println("length " + length + ": " + count
+                + " sequences, " + (foundSequences - before)
+                + " not worth trying");
+    }
+
+    /**
+     * Twists all sequences continuing from the given rules state and
+     * automaton state, and returns how many were twisted.
+     */
+    private int twist(int twists, int length, int state, int node) {
+        if (twists == length) {
+            reached(length);
+            return 1;
+        }
+
+        int result = 0;
+        for (int move = 0; move < moves.getMoves(); move++) {
+            int nextState = rules.next(state, move);
+            int nextNode = transitions[node * moves.getMoves() + move];
+            if (nextState < 0 || found[nextNode]) {
+                continue;
+            }
+
+            sequence[twists] = move;
+            moves.apply(move, labels);
+            result += twist(twists + 1, length, nextState, nextNode);
+            moves.apply(moves.inverse(move), labels);
+        }
+        return result;
+    }
+
+    /**
+     * Records the cube reached by the current sequence, or adds the sequence
+     * to the trie if a shorter sequence reached the same cube.
+     */
+    private void reached(int length) {
+        ByteBuffer cube = ByteBuffer.wrap(labels.clone());
+        Integer shortest = lengths.get(cube);
+
+        if (shortest == null) {
+            lengths.put(cube, length);
+        } else if (shortest < length) {
+            add(length);
+        }
+    }
+
+    /**
+     * Adds the first twists of the current sequence to the trie.
+     */
+    private void add(int length) {
+        int node = 0;
+        for (int i = 0; i < length; i++) {
+            int index = node * moves.getMoves() + sequence[i];
+            if (children[index] == 0) {
+                if (nodes == ends.length) {
+                    ends = Arrays.copyOf(ends, nodes * 2);
+                    children = Arrays.copyOf(children, nodes * 2
+                            * moves.getMoves());
+                }
+                children[index] = nodes;
+                nodes++;
+            }
+            node = children[index];
+        }
+        ends[node] = true;
+        foundSequences++;
+    }
+
+    /**
+     * Computes the transitions of the automaton: for each node and twist, the
+     * node of the longest sequence in the trie the sequence of the node plus
+     * the twist ends with. A node is found if any sequence it ends with is
+     * not worth trying.
+     */
+    private void automaton() {
+        int moveCount = moves.getMoves();
+        transitions = new int[nodes * moveCount];
+        found = new boolean[nodes];
+
+        // breadth first, so the suffix of a node is done before the node
+        int[] queue = new int[nodes];
+        int[] suffix = new int[nodes];
+        int head = 0;
+        int tail = 0;
+
+        for (int move = 0; move < moveCount; move++) {
+            int child = children[move];
+            transitions[move] = child;
+            if (child != 0) {
+                suffix[child] = 0;
+                queue[tail++] = child;
+            }
+        }
+
+        while (head < tail) {
+            int node = queue[head++];
+            found[node] = ends[node] || found[suffix[node]];
+
+            for (int move = 0; move < moveCount; move++) {
+                int child = children[node * moveCount + move];
+                int fallback = transitions[suffix[node] * moveCount + move];
+                if (child != 0) {
+                    suffix[child] = fallback;
+                    transitions[node * moveCount + move] = child;
+                    queue[tail++] = child;
+                } else {
+                    transitions[node * moveCount + move] = fallback;
+                }
+            }
+        }
+    }
+
+    /**
+     * Combines the rules and the automaton into one sequence table. Only
+     * keeps the pairs of states reachable from the start.
+     */
+    private SequenceTable table() {
+        automaton();
+        int moveCount = moves.getMoves();
+
+        Map<Long, Integer> numbers = new HashMap<Long, Integer>();
+        List<long[]> states = new ArrayList<long[]>();
+        number(SequenceTable.START, 0, numbers, states);
+
+        List<Integer> next = new ArrayList<Integer>();
+        for (int i = 0; i < states.size(); i++) {
+            int state = (int) states.get(i)[0];
+            int node = (int) states.get(i)[1];
+
+            for (int move = 0; move < moveCount; move++) {
+                int nextState = rules.next(state, move);
+                int nextNode = transitions[node * moveCount + move];
+                if (nextState < 0 || found[nextNode]) {
+                    next.add(-1);
+                } else {
+                    next.add(number(nextState, nextNode, numbers, states));
+                }
+            }
+        }
+
+        int[] nextStates = new int[next.size()];
+        int[] weights = new int[nextStates.length];
+        int[] runWeights = new int[states.size()];
+        for (int i = 0; i < runWeights.length; i++) {
+            int state = (int) states.get(i)[0];
+            runWeights[i] = rules.runWeights[state];
+
+            for (int move = 0; move < moveCount; move++) {
+                int index = i * moveCount + move;
+                nextStates[index] = next.get(index);
+                if (nextStates[index] >= 0) {
+                    weights[index] = rules.weight(state, move);
+                }
+            }
+        }
+
+        return new SequenceTable(moves.getSize(), nextStates, weights,
+                runWeights);
+    }
+
+    private static int number(int state, int node, Map<Long, Integer> numbers,
+            List<long[]> states) {
+        long key = ((long) state << 32) | node;
+
+        Integer number = numbers.get(key);
+        if (number == null) {
+            number = states.size();
+            states.add(new long[] { state, node });
+            numbers.put(key, number);
+        }
+        return number;
+    }
+
+    public static void printUsage() {
+        System.out.println("Sequence table generator");
+        System.out.println("");
+        System.out
+                .println("Twists all sequences up to a length, and writes a table of the sequences");
+        System.out
+                .println(" worth trying, for use with the --fsm option of the solver");
+        System.out.println("");
+        System.out.println("USAGE: SequenceGenerator [OPTIONS]");
+        System.out.println("");
+        System.out.println("Options:");
+        System.out.println("--size SIZE\t\tSize of cube (default: 3)");
+        System.out
+                .println("--length LENGTH\t\tLength of the longest sequence twisted (default: 5)");
+        System.out
+                .println("--file FILE_NAME\t\tFile to write the table to (default: sequences-SIZE.fsm)");
+        System.out.println("");
+    }
+
+    /**
+     * Main function.
+     *
+     * @param arguments
+     *            list of arguments
+     */
+    public static void main(String[] arguments) {
+        int size = 3;
+        int length = 5;
+        String fileName = null;
+
+        for (int i = 0; i < arguments.length; i++) {
+            if (arguments[i].equalsIgnoreCase("--size")) {
+                i++;
+                size = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--length")) {
+                i++;
+                length = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--file")) {
+                i++;
+                fileName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--help")
+                    || arguments[i].equalsIgnoreCase("-h")) {
+                printUsage();
+                System.exit(0);
+            } else {
+                System.err.println("unknown option : " + arguments[i]);
+                printUsage();
+                System.exit(1);
+            }
+        }
+        if (fileName == null) {
+            fileName = "sequences-" + size + ".fsm";
+        }
+
+        long start = System.currentTimeMillis();
+
+        SequenceGenerator generator = new SequenceGenerator(size, length);
+        generator.reached(0);
+        for (int i = 1; i <= length; i++) {
+            generator.generate(i);
+        }
+
+        SequenceTable table = generator.table();
+        try {
+            table.write(fileName);
+        } catch (Exception e) {
+            System.err.println("Cannot write sequence table: " + e);
+            System.exit(1);
+        }
+
+        long end = System.currentTimeMillis();
+
+        System.out.println("Wrote " + table.getStates() + " states to "
+                + fileName);
+        System.err.println("Generating sequence table took " + (end - start)
+                + " milliseconds");
+    }
+}
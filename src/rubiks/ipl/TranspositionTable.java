@@ -0,0 +1,197 @@
+package rubiks.ipl;
+
+/**
+ * Table of the number of solutions found from a cube before (transposition
+ * table). Many twist sequences lead to the same cube, and the solutions of a
+ * cube within a number of twists only depend on the cube, the state of the
+ * sequence it is a result of (see {@link SequenceTable}) and the twists left
+ * to the bound. So the search looks up the cube with these before searching
+ * it, and stores what it found afterwards, see {@link Rubiks}.
+ *
+ * Besides the number of solutions, an entry holds how far over the bound the
+ * smallest estimate seen while searching the cube was, so a cube found in the
+ * table still sets the bound of the next iteration. If the search already knew
+ * a smaller next bound it may not have seen this estimate, so what is stored
+ * may be smaller than the real one. Then a bound without solutions may be
+ * searched, but no bound with solutions is skipped.
+ *
+ * The table holds as many entries as fit in a given amount of memory, in
+ * buckets of two. A new entry replaces the first entry of its bucket if it
+ * has at least as many twists left (so its search took longer), the second
+ * one otherwise. Entries stay valid for every bound and every cube of the
+ * same size, so there is only one table, shared by all threads. Buckets are
+ * guarded by one of a number of locks, so threads rarely wait for each
+ * other.
+ *
+ */
+public final class TranspositionTable {
+
+    // default size of the table in megabytes
+    public static final int DEFAULT_MEMORY = 64;
+
+    // cubes with fewer twists left are not worth looking up
+    public static final int MIN_DEPTH = 3;
+
+    // returned by get() for cubes not in the table
+    public static final long MISSING = -1;
+
+    // "over" of a cube without estimates over the bound
+    public static final int NONE = 255;
+
+    private static final int ENTRY_WORDS = 3;
+
+    private static final int BUCKET = 2;
+
+    private static final int LOCKS = 64;
+
+    private static TranspositionTable table;
+
+    private final int size;
+
+    private final int memory;
+
+    /*
+     * for each entry: the two words of its key, and its value: number of
+     * solutions in the low 32 bits, "over" in the next 8, twists left in the
+     * next 8. An empty entry has value 0 (no twists left is never stored)
+     */
+    private final long[] entries;
+
+    private final int mask; // buckets - 1
+
+    private final Object[] locks = new Object[LOCKS];
+
+    /**
+     * Returns the table for cubes of a given size, creating it if the last
+     * one created is for another size or memory.
+     *
+     * @param size
+     *            size of the cubes
+     * @param memory
+     *            size of the table in megabytes
+     * @return the transposition table
+     */
+    public static synchronized TranspositionTable get(int size, int memory) {
+        if (table == null || table.size != size || table.memory != memory) {
+            table = null; // let the old table go first
+            table = new TranspositionTable(size, memory);
+        }
+        return table;
+    }
+
+    private TranspositionTable(int size, int memory) {
+        this.size = size;
+        this.memory = memory;
+
+        long bucketBytes = 8L * ENTRY_WORDS * BUCKET;
+        long buckets = Long.highestOneBit(Math.max(
+                ((long) memory << 20) / bucketBytes, 1));
+        if (buckets * BUCKET * ENTRY_WORDS > Integer.MAX_VALUE - 8) {
+            throw new Error("transposition table too large: " + memory
+                    + " megabytes");
+        }
+        entries = new long[(int) (buckets * BUCKET * ENTRY_WORDS)];
+        mask = (int) buckets - 1;
+
+        for (int i = 0; i < LOCKS; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Looks up a cube.
+     *
+     * @param first
+     *            first word of the key of the cube
+     * @param second
+     *            second word of the key, including the state of the sequence
+     *            the cube is a result of
+     * @param depth
+     *            twists left to the bound, at least 1
+     * @return the entry of the cube, see {@link #count(long)} and
+     *         {@link #over(long)}, or MISSING
+     */
+    public long get(long first, long second, int depth) {
+        int bucket = bucket(first, second, depth);
+        int start = bucket * BUCKET * ENTRY_WORDS;
+
+        synchronized (locks[bucket & (LOCKS - 1)]) {
+            for (int i = start; i < start + BUCKET * ENTRY_WORDS; i += ENTRY_WORDS) {
+                long value = entries[i + 2];
+                if (entries[i] == first && entries[i + 1] == second
+                        && (int) (value >>> 40) == depth) {
+                    return value & 0xffffffffffL;
+                }
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * Stores the result of searching a cube.
+     *
+     * @param first
+     *            first word of the key of the cube
+     * @param second
+     *            second word of the key, see {@link #get(long, long, int)}
+     * @param depth
+     *            twists left to the bound, at least 1
+     * @param count
+     *            number of solutions found
+     * @param over
+     *            smallest estimate seen over the bound, minus the bound, or
+     *            NONE
+     */
+    public void put(long first, long second, int depth, int count, int over) {
+        int bucket = bucket(first, second, depth);
+        int start = bucket * BUCKET * ENTRY_WORDS;
+        long value = (long) depth << 40 | (long) Math.min(over, NONE) << 32
+                | (count & 0xffffffffL);
+
+        synchronized (locks[bucket & (LOCKS - 1)]) {
+            int slot = start + ENTRY_WORDS; // the always replaced entry
+            boolean stored = entries[slot] == first
+                    && entries[slot + 1] == second
+                    && (int) (entries[slot + 2] >>> 40) == depth;
+            if (!stored && depth >= (int) (entries[start + 2] >>> 40)) {
+                slot = start;
+            }
+            entries[slot] = first;
+            entries[slot + 1] = second;
+            entries[slot + 2] = value;
+        }
+    }
+
+    /**
+     * Returns the number of solutions of an entry.
+     *
+     * @param entry
+     *            entry found by {@link #get(long, long, int)}
+     * @return the number of solutions
+     */
+    public static int count(long entry) {
+        return (int) entry;
+    }
+
+    /**
+     * Returns how far over the bound the smallest estimate of an entry is.
+     *
+     * @param entry
+     *            entry found by {@link #get(long, long, int)}
+     * @return the smallest estimate over the bound minus the bound, or NONE
+     */
+    public static int over(long entry) {
+        return (int) (entry >>> 32) & 0xff;
+    }
+
+    // *** Only private functions ahead. ***\\
+
+    private int bucket(long first, long second, int depth) {
+        long hash = first * 0x9e3779b97f4a7c15L
+                ^ (second + depth) * 0xc2b2ae3d27d4eb4fL;
+        hash ^= hash >>> 29;
+        hash *= 0xbf58476d1ce4e5b9L;
+        hash ^= hash >>> 32;
+        return (int) hash & mask;
+    }
+}
@@ -0,0 +1,351 @@
+package rubiks.sequential;
+
+/**
+ * A 3x3x3 rubik's cube described by the positions and orientations of its
+ * pieces ("cubies") instead of by its elements. Twisting this cube only needs
+ * a table lookup per coordinate, see {@link CubieTable}. Twists are numbered
+ * as in {@link MoveTable}.
+ *
+ * Create one from a {@link Cube} of size 3 once, and twist it in place
+ * during the search.
+ *
+ * Besides the coordinates, the cube keeps the edge at each position. These
+ * give the edge coordinates of the inverse cube, the cube that this one
+ * turns into the solved cube and the other way around. Solving both takes
+ * the same number of twists (reversing and undoing the twists of one solves
+ * the other), so the pattern databases give a lower bound for both, and the
+ * largest one is used (dual lookups). Only the edge groups are looked up for
+ * the inverse: the corners of the inverse are as far from solved as the
+ * corners of the cube itself, the corner database being a database of all
+ * corners.
+ *
+ */
+public class CubieCube {
+
+    private final CubieTable table;
+
+    private final PatternDatabase[] databases;
+
+    private int centers; // arrangement of the centers
+
+    private int cornerPermutation;
+
+    private int cornerOrientation;
+
+    // positions and orientations of each group of four edges
+    private final int[] edges = new int[CubieTable.EDGE_GROUPS];
+
+    // edge at each position, and whether it is flipped, packed as described
+    // in CubieTable
+    private long edgePositions;
+
+    // coordinates of the children of this cube, one array per coordinate,
+    // see countSolutionsWithinTwo()
+    private final int[] childCenters = new int[CubieTable.MOVES];
+
+    private final int[] childCornerPermutations = new int[CubieTable.MOVES];
+
+    private final int[] childCornerOrientations = new int[CubieTable.MOVES];
+
+    private final int[][] childEdges = new int[CubieTable.EDGE_GROUPS][CubieTable.MOVES];
+
+    private int twists; // number of twists this cube is a result of
+
+    private int bound; // bound, useful for limiting the search depth
+
+    /**
+     * Creates the cubie form of a cube.
+     *
+     * @param cube
+     *            cube of size 3
+     */
+    public CubieCube(Cube cube) {
+        table = CubieTable.get();
+        databases = PatternDatabase.get();
+
+        int[] coordinates = table.coordinates(cube, edges);
+        centers = coordinates[0];
+        cornerPermutation = coordinates[1];
+        cornerOrientation = coordinates[2];
+
+        int[] positions = new int[CubieTable.GROUP_EDGES];
+        for (int group = 0; group < CubieTable.EDGE_GROUPS; group++) {
+            CubieTable.unrank(edges[group] >> CubieTable.GROUP_EDGES,
+                    positions, CubieTable.EDGES);
+            for (int i = 0; i < CubieTable.GROUP_EDGES; i++) {
+                edgePositions |= (long) (group * CubieTable.GROUP_EDGES + i) << (4 * positions[i]);
+                edgePositions |= (long) ((edges[group] >> i) & 1) << (CubieTable.FLIPS + positions[i]);
+            }
+        }
+
+        twists = cube.getTwists();
+        bound = cube.getBound();
+    }
+
+    /**
+     * Number of times this cube has been twisted
+     *
+     * @return the number of twists
+     */
+    public int getTwists() {
+        return twists;
+    }
+
+    /**
+     * Get the bound of this cube. Not actually used in this class, but useful
+     * in search algorithm.
+     *
+     * @return the current bound
+     */
+    public int getBound() {
+        return bound;
+    }
+
+    /**
+     * Set the bound of this cube. Not actually used in this class, but useful
+     * in in search algorithm.
+     *
+     * @param bound
+     *            the new bound
+     */
+    public void setBound(int bound) {
+        this.bound = bound;
+    }
+
+    /**
+     * Returns the number of possible twists.
+     *
+     * @return the number of possible twists
+     */
+    public int getMoves() {
+        return CubieTable.MOVES;
+    }
+
+    /**
+     * Returns if this cube is solved or not.
+     *
+     * @return true if solved, false if not
+     */
+    public boolean isSolved() {
+        return centers == 0 && cornerPermutation == 0
+                && cornerOrientation == 0
+                && edges[0] == table.solvedEdges[0]
+                && edges[1] == table.solvedEdges[1]
+                && edges[2] == table.solvedEdges[2];
+    }
+
+    /**
+     * Returns the edges of this cube, as part of its key in a
+     * {@link TranspositionTable}.
+     *
+     * @return the positions and flips of the edges
+     */
+    public long getEdgeKey() {
+        return edgePositions;
+    }
+
+    /**
+     * Returns the corners and centers of this cube, as the rest of its key in a
+     * {@link TranspositionTable}.
+     *
+     * @return a number below 2^27 for the corners and centers
+     */
+    public int getCornerKey() {
+        return (cornerOrientation * CubieTable.CORNER_PERMUTATIONS + cornerPermutation)
+                * CubieTable.CENTER_STATES + centers;
+    }
+
+    /**
+     * Returns a lower bound on the number of twists needed to solve this
+     * cube: the most twists needed to solve the pieces of any
+     * {@link PatternDatabase}, of this cube or of its inverse.
+     *
+     * @return a lower bound on the distance to the solved cube
+     */
+    public int lowerBound() {
+        return lowerBound(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #lowerBound()}, but does not look up the inverse once
+     * the cube itself is known to need more twists than a limit. The search
+     * skips such cubes anyway.
+     *
+     * @param limit
+     *            twists left within the bound of the search
+     * @return a lower bound on the distance to the solved cube
+     */
+    public int lowerBound(int limit) {
+        int result = databases[PatternDatabase.CORNERS].distance(
+                cornerPermutation, cornerOrientation);
+        for (int group = 0; group < CubieTable.EDGE_GROUPS; group++) {
+            result = Math.max(result, databases[1 + group].distance(
+                    edges[group], centers));
+        }
+        if (result > limit) {
+            return result;
+        }
+
+        int inverseCenters = table.centerInverses[centers];
+        for (int group = 0; group < CubieTable.EDGE_GROUPS; group++) {
+            // edges at the positions of the group are the group of the
+            // inverse, flipped as much
+            int start = group * CubieTable.GROUP_EDGES;
+            int inverseEdges = (table.groupRanks[(int) (edgePositions >>> (4 * start)) & 0xffff] << CubieTable.GROUP_EDGES)
+                    | ((int) (edgePositions >>> (CubieTable.FLIPS + start)) & 15);
+            result = Math.max(result, databases[1 + group].distance(
+                    inverseEdges, inverseCenters));
+        }
+        return result;
+    }
+
+    /**
+     * Returns if this cube would be solved by a twist, without twisting it.
+     *
+     * @param move
+     *            number of the twist
+     * @return true if solved after the twist, false if not
+     */
+    public boolean isSolvedAfter(int move) {
+        int moves = CubieTable.MOVES;
+
+        return table.centerMoves[centers * moves + move] == 0
+                && table.cornerPermutationMoves[cornerPermutation * moves
+                        + move] == 0
+                && table.cornerOrientationMoves[cornerOrientation * moves
+                        + move] == 0
+                && table.edgeMoves[edges[0] * moves + move] == table.solvedEdges[0]
+                && table.edgeMoves[edges[1] * moves + move] == table.solvedEdges[1]
+                && table.edgeMoves[edges[2] * moves + move] == table.solvedEdges[2];
+    }
+
+    /**
+     * Returns the twists which solve this cube, as a bit for each twist.
+     * Looks up the twists solving each coordinate, instead of trying each
+     * twist.
+     *
+     * @return a bit set for each twist after which this cube is solved
+     */
+    public int solvingMoves() {
+        return solvingMoves(centers, cornerPermutation, cornerOrientation,
+                edges[0], edges[1], edges[2]);
+    }
+
+    /**
+     * Counts the sequences of one or two twists solving this cube, where a
+     * sequence stops once the cube is solved (as in the search). Twists all
+     * children of this cube at once, keeping the coordinates of the children
+     * in one array per coordinate, and then finds the solving twists of each
+     * child with {@link #solvingMoves()}. Only tries the sequences tried by
+     * the search, and weighs the solutions found, see {@link SequenceTable}.
+     *
+     * @param sequences
+     *            twist sequences to try
+     * @param sequence
+     *            state of the twists this cube is a result of
+     * @return the weighted number of solutions of one or two twists
+     */
+    public int countSolutionsWithinTwo(SequenceTable sequences, int sequence) {
+        int moves = CubieTable.MOVES;
+
+        twistAll(table.centerMoves, centers, childCenters);
+        twistAll(table.cornerPermutationMoves, cornerPermutation,
+                childCornerPermutations);
+        twistAll(table.cornerOrientationMoves, cornerOrientation,
+                childCornerOrientations);
+        for (int group = 0; group < CubieTable.EDGE_GROUPS; group++) {
+            twistAll(table.edgeMoves, edges[group], childEdges[group]);
+        }
+
+        int solvedChildren = solvingMoves();
+        int result = sequences.leafSolutions(sequence, solvedChildren);
+
+        for (int move = 0; move < moves; move++) {
+            int next = sequences.next(sequence, move);
+            if (next >= 0 && (solvedChildren & (1 << move)) == 0) {
+                result += sequences.weight(sequence, move)
+                        * sequences.leafSolutions(next, solvingMoves(
+                                childCenters[move],
+                                childCornerPermutations[move],
+                                childCornerOrientations[move],
+                                childEdges[0][move], childEdges[1][move],
+                                childEdges[2][move]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Twist this cube in place.
+     *
+     * @param move
+     *            number of the twist
+     */
+    public void apply(int move) {
+        twist(move);
+        twists++;
+    }
+
+    /**
+     * Undo a twist previously applied to this cube with {@link #apply(int)}.
+     *
+     * @param move
+     *            number of the twist to undo
+     */
+    public void undo(int move) {
+        // inverse twist, see MoveTable
+        twist(move ^ 1);
+        twists--;
+    }
+
+    /**
+     * Looks up a coordinate after every twist. These are next to each other
+     * in the table.
+     */
+    private void twistAll(int[] coordinateMoves, int coordinate, int[] result) {
+        System.arraycopy(coordinateMoves, coordinate * CubieTable.MOVES,
+                result, 0, CubieTable.MOVES);
+    }
+
+    private int solvingMoves(int centers, int cornerPermutation,
+            int cornerOrientation, int edgesA, int edgesB, int edgesC) {
+        // most cubes are not solved by any twist, stop as soon as we know
+        int result = table.centerSolvingMoves[centers];
+        if (result != 0) {
+            result &= table.cornerPermutationSolvingMoves[cornerPermutation];
+        }
+        if (result != 0) {
+            result &= table.cornerOrientationSolvingMoves[cornerOrientation];
+        }
+        if (result != 0) {
+            result &= table.edgeSolvingMoves[0][edgesA]
+                    & table.edgeSolvingMoves[1][edgesB]
+                    & table.edgeSolvingMoves[2][edgesC];
+        }
+        return result;
+    }
+
+    private void twist(int move) {
+        int moves = CubieTable.MOVES;
+
+        centers = table.centerMoves[centers * moves + move];
+        cornerPermutation = table.cornerPermutationMoves[cornerPermutation
+                * moves + move];
+        cornerOrientation = table.cornerOrientationMoves[cornerOrientation
+                * moves + move];
+        edges[0] = table.edgeMoves[edges[0] * moves + move];
+        edges[1] = table.edgeMoves[edges[1] * moves + move];
+        edges[2] = table.edgeMoves[edges[2] * moves + move];
+
+        long positions = edgePositions;
+        long twisted = positions & table.keptEdges[move];
+        int end = table.movedStart[move + 1];
+        for (int i = table.movedStart[move]; i < end; i++) {
+            int from = table.movedFrom[i];
+            int to = table.movedTo[i];
+            twisted |= ((positions >>> (4 * from)) & 15) << (4 * to);
+            twisted |= (((positions >>> (CubieTable.FLIPS + from)) ^ table.movedFlip[i]) & 1) << (CubieTable.FLIPS + to);
+        }
+        edgePositions = twisted;
+    }
+}
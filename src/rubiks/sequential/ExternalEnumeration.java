@@ -0,0 +1,399 @@
+package rubiks.sequential;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Breadth first search over all cubes of a size, from the solved cube, with
+ * the levels on disk instead of in memory (option --enumerate of
+ * {@link Rubiks}). Finds the number of cubes at each distance from solved, and
+ * the distance of the cube given.
+ *
+ * Each level is a file of the cubes in it, sorted by fingerprint, each cube
+ * its fingerprint followed by its packed form. The cubes of the next level are
+ * found by twisting each cube of the last one. Those reached are collected in
+ * memory, and whenever the memory is full sorted and written to a file (a
+ * run). Duplicates are only removed afterwards (delayed duplicate detection):
+ * the runs are merged, and compared with the files of the last two levels,
+ * which are sorted the same way. A twist takes a cube of the last level to
+ * the level before, the last level itself, or the next level, so a cube not
+ * in the last two levels is new.
+ *
+ * All files are read and written sequentially, through large buffers outside
+ * the heap. Only the files of the last two levels are kept.
+ *
+ */
+public final class ExternalEnumeration {
+
+    // bytes buffered for each level file read or written
+    private static final int BUFFER = 8 << 20;
+
+    // bytes buffered for each run read while merging
+    private static final int RUN_BUFFER = 1 << 20;
+
+    // cubes collected at first, the buffer grows up to the cubes of a run
+    private static final int INITIAL_CUBES = 1 << 16;
+
+    private final File directory;
+
+    // copy of the cubes of a run, to sort them with
+    private long[] sorted = new long[0];
+
+    private boolean targetFound; // if the last merge wrote the target
+
+    /**
+     * Creates an enumeration keeping its files in a directory.
+     *
+     * @param directory
+     *            directory for the files of the levels and runs
+     */
+    public ExternalEnumeration(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Runs the breadth first search, and prints the number of cubes at each
+     * distance.
+     *
+     * @param cube
+     *            cube to find the distance of, the search is over cubes of its
+     *            size and colors
+     * @param maxDepth
+     *            largest distance to search to, 0 to search all cubes
+     * @throws IOException
+     *             if reading or writing a file fails
+     */
+    public void run(Cube cube, int maxDepth) throws IOException {
+        MoveTable moves = MoveTable.get(cube.getSize());
+        int packed = PackedCube.words(cube.getSize());
+        int stride = packed + 1; // longs per cube, its fingerprint first
+        long target = cube.getFingerprint();
+
+        // most cubes sorted at once: half the memory, for the cubes and a
+        // copy to sort them with
+        long memory = Runtime.getRuntime().maxMemory() / 2;
+        int runCubes = (int) Math.min(memory / (16L * stride),
+                (Integer.MAX_VALUE - 8) / stride);
+
+        System.out.println("Enumerating cubes of size " + cube.getSize()
+                + " on disk, in " + directory);
+
+        Cube solved = cube.solved();
+        PackedCube scratch = solved.pack();
+        long[] record = new long[stride];
+        record[0] = solved.getFingerprint();
+        System.arraycopy(scratch.words, 0, record, 1, packed);
+
+        File before = null; // level before the last one
+        File last = file("level");
+        RecordWriter writer = new RecordWriter(last, stride, BUFFER);
+        writer.write(record, 0);
+        writer.close();
+
+        long total = 1;
+        int distance = solved.getFingerprint() == target ? 0 : -1;
+        int depth = 0;
+        System.out.println("0 twists: 1 cubes");
+
+        Cube work = new Cube(solved);
+        long[] cubes = new long[Math.min(INITIAL_CUBES, runCubes) * stride];
+        for (int level = 1; maxDepth == 0 || level <= maxDepth; level++) {
+            // twist each cube of the last level, writing the cubes reached
+            // in sorted runs
+            List<File> runs = new ArrayList<File>();
+            int count = 0;
+            RecordReader reader = new RecordReader(last, stride, BUFFER);
+            while (reader.next()) {
+                System.arraycopy(reader.record, 1, scratch.words, 0, packed);
+                work.unpack(scratch);
+                for (int move = 0; move < moves.getMoves(); move++) {
+                    work.apply(moves, move);
+                    int offset = count * stride;
+                    cubes[offset] = work.getFingerprint();
+                    work.pack(cubes, offset + 1);
+                    count++;
+                    if (count == runCubes) {
+                        runs.add(writeRun(cubes, count, stride));
+                        count = 0;
+                    } else if (count * stride == cubes.length) {
+                        cubes = Arrays.copyOf(cubes, Math.min(2 * count,
+                                runCubes) * stride);
+                    }
+                    work.undo(moves, move);
+                }
+            }
+            reader.close();
+            if (count > 0) {
+                runs.add(writeRun(cubes, count, stride));
+            }
+
+            // merge the runs, keeping the cubes not in the last two levels
+            File next = file("level");
+            long levelCubes = merge(runs, before, last, next, stride, target);
+            for (File run : runs) {
+                delete(run);
+            }
+
+            if (before != null) {
+                delete(before);
+            }
+            before = last;
+            last = next;
+
+            if (levelCubes == 0) {
+                break;
+            }
+            total += levelCubes;
+            depth = level;
+            if (targetFound) {
+                distance = level;
+            }
+            System.out.println(level + " twists: " + levelCubes + " cubes");
+        }
+        if (before != null) {
+            delete(before);
+        }
+        delete(last);
+
+        System.out.println();
+        System.out.println(total + " cubes, up to " + depth
+                + " twists from solved");
+        if (distance >= 0) {
+            System.out.println("Cube is " + distance + " twists from solved");
+        } else {
+            System.out.println("Cube is more than " + depth
+                    + " twists from solved");
+        }
+    }
+
+    // *** Only private functions ahead. ***\\
+
+    /**
+     * Sorts cubes by fingerprint, and writes them to a new run without
+     * duplicates. Sorts on the bits of the fingerprints, a byte at a time
+     * starting with the lowest, so they end up in unsigned order.
+     */
+    private File writeRun(long[] cubes, int count, int stride)
+            throws IOException {
+        if (sorted.length < count * stride) {
+            sorted = new long[cubes.length];
+        }
+        long[] source = cubes;
+        long[] target = sorted;
+        int[] starts = new int[257];
+        for (int shift = 0; shift < 64; shift += 8) {
+            Arrays.fill(starts, 0);
+            for (int i = 0; i < count; i++) {
+                starts[(int) (source[i * stride] >>> shift & 0xff) + 1]++;
+            }
+            for (int i = 1; i < 257; i++) {
+                starts[i] += starts[i - 1];
+            }
+            for (int i = 0; i < count; i++) {
+                int bucket = (int) (source[i * stride] >>> shift & 0xff);
+                System.arraycopy(source, i * stride, target, starts[bucket]
+                        * stride, stride);
+                starts[bucket]++;
+            }
+            long[] swap = source;
+            source = target;
+            target = swap;
+        }
+        // eight passes, so the sorted cubes are back in the first array
+
+        File result = file("run");
+        RecordWriter writer = new RecordWriter(result, stride, BUFFER);
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || source[i * stride] != source[(i - 1) * stride]) {
+                writer.write(source, i * stride);
+            }
+        }
+        writer.close();
+        return result;
+    }
+
+    /**
+     * Merges sorted runs into the file of the next level, leaving out the
+     * cubes of the two levels before. Returns the number of cubes written,
+     * and sets targetFound.
+     */
+    private long merge(List<File> runs, File before, File last, File next,
+            int stride, long target) throws IOException {
+        PriorityQueue<RecordReader> queue = new PriorityQueue<RecordReader>(
+                Math.max(runs.size(), 1), new Comparator<RecordReader>() {
+                    public int compare(RecordReader a, RecordReader b) {
+                        return Long.compareUnsigned(a.record[0], b.record[0]);
+                    }
+                });
+        for (File run : runs) {
+            RecordReader reader = new RecordReader(run, stride, RUN_BUFFER);
+            if (reader.next()) {
+                queue.add(reader);
+            } else {
+                reader.close();
+            }
+        }
+        RecordReader[] levels = new RecordReader[2];
+        levels[0] = before == null ? null : new RecordReader(before, stride,
+                BUFFER);
+        levels[1] = new RecordReader(last, stride, BUFFER);
+        boolean[] more = new boolean[2];
+        for (int i = 0; i < 2; i++) {
+            more[i] = levels[i] != null && levels[i].next();
+        }
+
+        RecordWriter writer = new RecordWriter(next, stride, BUFFER);
+        long written = 0;
+        boolean found = false;
+        boolean first = true;
+        long previous = 0;
+        while (!queue.isEmpty()) {
+            RecordReader reader = queue.poll();
+            long fingerprint = reader.record[0];
+
+            boolean known = !first && fingerprint == previous;
+            for (int i = 0; i < 2 && !known; i++) {
+                while (more[i]
+                        && Long.compareUnsigned(levels[i].record[0],
+                                fingerprint) < 0) {
+                    more[i] = levels[i].next();
+                }
+                known = more[i] && levels[i].record[0] == fingerprint;
+            }
+            if (!known) {
+                writer.write(reader.record, 0);
+                written++;
+                found |= fingerprint == target;
+            }
+            first = false;
+            previous = fingerprint;
+
+            if (reader.next()) {
+                queue.add(reader);
+            } else {
+                reader.close();
+            }
+        }
+        writer.close();
+        for (RecordReader level : levels) {
+            if (level != null) {
+                level.close();
+            }
+        }
+        targetFound = found;
+        return written;
+    }
+
+    private File file(String kind) throws IOException {
+        File result = File.createTempFile(kind, ".cubes", directory);
+        result.deleteOnExit();
+        return result;
+    }
+
+    private static void delete(File file) throws IOException {
+        if (!file.delete()) {
+            throw new IOException("cannot delete " + file);
+        }
+    }
+
+    /**
+     * Writes cubes to a file, through a buffer outside the heap.
+     */
+    private static final class RecordWriter {
+
+        private final FileChannel channel;
+
+        private final ByteBuffer buffer;
+
+        private final int stride;
+
+        RecordWriter(File file, int stride, int size) throws IOException {
+            channel = new FileOutputStream(file).getChannel();
+            buffer = ByteBuffer.allocateDirect(size - size % (8 * stride))
+                    .order(ByteOrder.nativeOrder());
+            this.stride = stride;
+        }
+
+        void write(long[] cubes, int offset) throws IOException {
+            if (buffer.remaining() < 8 * stride) {
+                flush();
+            }
+            for (int i = 0; i < stride; i++) {
+                buffer.putLong(cubes[offset + i]);
+            }
+        }
+
+        void close() throws IOException {
+            flush();
+            channel.close();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Reads the cubes of a file one by one, through a buffer outside the
+     * heap.
+     */
+    private static final class RecordReader {
+
+        private final FileChannel channel;
+
+        private final ByteBuffer buffer;
+
+        private final int stride;
+
+        // the cube read last
+        final long[] record;
+
+        RecordReader(File file, int stride, int size) throws IOException {
+            channel = new FileInputStream(file).getChannel();
+            buffer = ByteBuffer.allocateDirect(size - size % (8 * stride))
+                    .order(ByteOrder.nativeOrder());
+            buffer.flip(); // empty
+            this.stride = stride;
+            record = new long[stride];
+        }
+
+        /**
+         * Reads the next cube into record. Returns false at the end of the
+         * file.
+         */
+        boolean next() throws IOException {
+            if (buffer.remaining() < 8 * stride) {
+                buffer.compact();
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // read until full or at the end
+                }
+                buffer.flip();
+                if (buffer.remaining() < 8 * stride) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < stride; i++) {
+                record[i] = buffer.getLong();
+            }
+            return true;
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package rubiks.sequential;
+
+/**
+ * Counts the solutions of a cube within a bound by searching from both ends
+ * (meet in the middle), instead of from the cube only as {@link Rubiks} does
+ * by default. A depth first search from the solved cube counts the twist
+ * sequences of half the bound leading to each cube, by fingerprint. A second
+ * search from the cube to solve, as deep as the rest of the bound, looks up
+ * each cube it reaches: every sequence leading there from the solved cube,
+ * undone in reverse, finishes a solution. So both searches twist about
+ * b^(d/2) times, instead of b^d, but all cubes halfway are kept in memory.
+ *
+ * Both searches try all twists except the inverse of the last one, so every
+ * order of the twists in a solution counts, as in the default search. A twist
+ * followed by its inverse is never part of an optimal solution, also not
+ * where the two searches meet. The search from the cube to solve skips cubes
+ * which cannot be solved within the bound according to their lower bound.
+ *
+ */
+public final class MiddleSearch {
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private final MoveTable moves;
+
+    private final Cube solved;
+
+    // centers of 4x4x4 cubes, null until a bound leaves the search room to
+    // spare, as in Rubiks
+    private CenterDatabase centers;
+
+    private int depth = -1; // twists of the sequences counted in the table
+
+    // fingerprint of the cube in each slot, slots found by linear probing
+    private long[] keys;
+
+    // sequences leading to the cube in each slot, 0 for empty slots
+    private int[] counts;
+
+    private int mask;
+
+    private int entries; // cubes in the table
+
+    /**
+     * Creates a search for cubes with the size and colors of a cube.
+     *
+     * @param cube
+     *            any cube to be solved with this search
+     */
+    public MiddleSearch(Cube cube) {
+        moves = MoveTable.get(cube.getSize());
+        solved = cube.solved();
+    }
+
+    /**
+     * Counts the solutions of a cube in exactly a number of twists. Only
+     * solutions without a twist followed by its inverse are counted, so this
+     * is the number of solutions if there is none with fewer twists.
+     *
+     * @param cube
+     *            cube to solve, unchanged when this function returns
+     * @param bound
+     *            number of twists of the solutions
+     * @return the number of solutions found
+     */
+    public long solutions(Cube cube, int bound) {
+        if (centers == null && cube.getSize() == CenterDatabase.SIZE
+                && bound - cube.getTwists() > cube.lowerBound(moves) + 1) {
+            centers = CenterDatabase.get();
+        }
+
+        int half = bound / 2;
+        if (half != depth) {
+            keys = new long[INITIAL_CAPACITY];
+            counts = new int[INITIAL_CAPACITY];
+            mask = INITIAL_CAPACITY - 1;
+            entries = 0;
+            depth = half;
+            collect(solved, depth, -1);
+        }
+        return join(cube, bound - half, -1);
+    }
+
+    // *** Only private functions ahead. ***\\
+
+    /**
+     * Counts the sequences of a number of twists from a cube to each cube
+     * reached, skipping twists undoing the last one.
+     */
+    private void collect(Cube cube, int left, int last) {
+        if (left == 0) {
+            add(cube.getFingerprint());
+            return;
+        }
+        for (int move = 0; move < moves.getMoves(); move++) {
+            if (move == (last ^ 1)) {
+                continue;
+            }
+            cube.apply(moves, move);
+            collect(cube, left - 1, move);
+            cube.undo(moves, move);
+        }
+    }
+
+    /**
+     * Counts the solutions through the cubes in the table of the cubes
+     * reached by a number of twists from a cube.
+     */
+    private long join(Cube cube, int left, int last) {
+        if (left == 0) {
+            return find(cube.getFingerprint());
+        }
+        if (cube.lowerBound(moves, centers) > left + depth) {
+            return 0;
+        }
+
+        long result = 0;
+        for (int move = 0; move < moves.getMoves(); move++) {
+            if (move == (last ^ 1)) {
+                continue;
+            }
+            cube.apply(moves, move);
+            result += join(cube, left - 1, move);
+            cube.undo(moves, move);
+        }
+        return result;
+    }
+
+    private int find(long fingerprint) {
+        for (int slot = slot(fingerprint);; slot = (slot + 1) & mask) {
+            if (counts[slot] == 0 || keys[slot] == fingerprint) {
+                return counts[slot];
+            }
+        }
+    }
+
+    private void add(long fingerprint) {
+        int slot = slot(fingerprint);
+        while (counts[slot] != 0 && keys[slot] != fingerprint) {
+            slot = (slot + 1) & mask;
+        }
+        if (counts[slot] == 0) {
+            keys[slot] = fingerprint;
+            entries++;
+        }
+        counts[slot]++;
+
+        // keep the table at most half full
+        if (2 * entries > keys.length) {
+            long[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = new long[2 * oldKeys.length];
+            counts = new int[2 * oldKeys.length];
+            mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldCounts[i] != 0) {
+                    slot = slot(oldKeys[i]);
+                    while (counts[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+    }
+
+    private int slot(long fingerprint) {
+        long hash = fingerprint * 0x9e3779b97f4a7c15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
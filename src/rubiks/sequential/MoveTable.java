@@ -0,0 +1,564 @@
+package rubiks.sequential;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Precomputed twists for cubes of a given size. Every possible twist (axis,
+ * first row and direction) is compiled once into a table listing, for each
+ * element of the cube, the element it is taken from. Twisting a cube is then
+ * a single pass over this table.
+ *
+ * Twists are numbered densely: twist number
+ * <code>(axis * (size - 1) + row - 1) * 2</code> is the twist in the positive
+ * direction, the next number the twist in the negative direction. The inverse
+ * of a twist is therefore found by flipping the lowest bit. This is also the
+ * order in which {@link Cube#generateChildren(CubeCache)} generates children.
+ *
+ * Tables are shared by all threads and all cubes of the same size.
+ *
+ */
+public final class MoveTable {
+
+    // tables for each cube size, built on first use
+    private static volatile MoveTable[] tables = new MoveTable[0];
+
+    private final int size;
+
+    private final int elements; // elements in a cube
+
+    private final int moves; // number of possible twists
+
+    /*
+     * for each twist, for each element of the cube, the element it is taken
+     * from. All tables are stored after each other.
+     */
+    private final int[] from;
+
+    /*
+     * for each twist, the elements it moves within a side as cycles of four
+     * elements. Each element in a cycle is taken from the next one, the last
+     * from the first. Cycles of a twist start at cycleStart[move].
+     */
+    final int[] cycles;
+
+    final int[] cycleStart;
+
+    /*
+     * for each twist, the elements it moves from side to side as cycles of
+     * four elements, followed by SIDES * the side of each of these elements.
+     * Rings of a twist start at ringStart[move].
+     */
+    final int[] rings;
+
+    final int[] ringStart;
+
+    // most elements any twist moves from one side to another
+    private final int mostMovedBetweenSides;
+
+    // number of bits to shift an element left by to find its keys
+    static final int KEY_SHIFT = 3;
+
+    /*
+     * random key for each color of each element, at index
+     * (element << KEY_SHIFT) + color. The fingerprint of a cube is the XOR of
+     * the keys of all its elements. The seed only depends on the size, so
+     * every machine computes the same fingerprints.
+     */
+    final long[] keys;
+
+    // generated code for the twists of this table, null if not generated or
+    // not available. Set before searching, see generateKernel()
+    TwistKernel kernel;
+
+    // SIMD code for the twists of this table, null if not enabled or not
+    // available. Set before searching, see useVectors()
+    VectorTwister vector;
+
+    /**
+     * Returns the (shared) table for cubes of a given size.
+     *
+     * @param size
+     *            size of the cube
+     * @return the move table for this size
+     */
+    public static MoveTable get(int size) {
+        MoveTable[] current = tables;
+        if (size < current.length && current[size] != null) {
+            return current[size];
+        }
+        return create(size);
+    }
+
+    private static synchronized MoveTable create(int size) {
+        MoveTable[] current = tables;
+        if (size < current.length && current[size] != null) {
+            return current[size];
+        }
+
+        MoveTable[] result = new MoveTable[Math.max(current.length, size + 1)];
+        System.arraycopy(current, 0, result, 0, current.length);
+        result[size] = new MoveTable(size);
+        tables = result;
+
+        return result[size];
+    }
+
+    private MoveTable(int size) {
+        this.size = size;
+        this.elements = Cube.SIDES * size * size;
+        this.moves = 6 * (size - 1);
+
+        from = new int[moves * elements];
+
+        int[] labels = new int[elements];
+        for (Cube.Axis axis : Cube.Axis.values()) {
+            for (int row = 1; row < size; row++) {
+                compile(axis, row, true, labels);
+                compile(axis, row, false, labels);
+            }
+        }
+
+        cycleStart = new int[moves + 1];
+        ringStart = new int[moves + 1];
+        int[][] compiled = compileCycles();
+        cycles = compiled[0];
+        rings = compiled[1];
+
+        int most = 1;
+        for (int move = 0; move < moves; move++) {
+            most = Math.max(most, getMovedBetweenSides(move));
+        }
+        mostMovedBetweenSides = most;
+
+        keys = new long[elements << KEY_SHIFT];
+        Random random = new Random(size);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Returns the size of the cubes this table is for.
+     *
+     * @return the size of the cubes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of possible twists.
+     *
+     * @return the number of possible twists
+     */
+    public int getMoves() {
+        return moves;
+    }
+
+    /**
+     * Generates straight-line code for the twists of this table, used by
+     * {@link Cube} from then on. Generating and compiling the code takes
+     * time, so this only pays off for longer searches. Does nothing if code
+     * cannot be generated for this size.
+     *
+     * @return true if code was generated, false if not
+     */
+    public synchronized boolean generateKernel() {
+        if (kernel == null) {
+            kernel = TwistKernel.create(this);
+        }
+        return kernel != null;
+    }
+
+    /**
+     * Lets {@link Cube} move elements with SIMD instructions from then on.
+     * Needs java 16 or newer with the jdk.incubator.vector module added, does
+     * nothing otherwise.
+     *
+     * @return true if SIMD instructions are used, false if not
+     */
+    public synchronized boolean useVectors() {
+        if (vector == null) {
+            vector = VectorTwister.create(this);
+        }
+        return vector != null;
+    }
+
+    /**
+     * Returns the number of a twist.
+     *
+     * @param axis
+     *            axis to turn cube on
+     * @param row
+     *            first row which to turn ( 0 < row < size )
+     * @param direction
+     *            direction to turn, either positive or negative
+     * @return the number of the twist
+     */
+    public int move(Cube.Axis axis, int row, boolean direction) {
+        if (row <= 0) {
+            throw new Error("first row to twist must be greater then zero");
+        }
+
+        if (row >= size) {
+            throw new Error(
+                    "first row to twist must be smaller then size of cube: "
+                            + size);
+        }
+
+        return ((axis.ordinal() * (size - 1) + row - 1) * 2)
+                + (direction ? 0 : 1);
+    }
+
+    /**
+     * Returns the twist undoing the given twist.
+     *
+     * @param move
+     *            number of a twist
+     * @return number of the inverse twist
+     */
+    public int inverse(int move) {
+        return move ^ 1;
+    }
+
+    /**
+     * Returns the element a twist takes the color of an element from.
+     *
+     * @param move
+     *            number of the twist
+     * @param element
+     *            element of the twisted cube
+     * @return element of the original cube
+     */
+    int getSource(int move, int element) {
+        return from[move * elements + element];
+    }
+
+    /**
+     * Twist the elements of a cube.
+     *
+     * @param move
+     *            number of the twist
+     * @param source
+     *            elements of the cube to twist
+     * @param target
+     *            array to write the elements of the twisted cube to. Must not
+     *            be the same array as source.
+     */
+    public void apply(int move, byte[] source, byte[] target) {
+        int base = move * elements;
+        for (int i = 0; i < elements; i++) {
+            target[i] = source[from[base + i]];
+        }
+    }
+
+    /**
+     * Twist the elements of a cube in place.
+     *
+     * @param move
+     *            number of the twist
+     * @param data
+     *            elements of the cube to twist
+     */
+    public void apply(int move, byte[] data) {
+        int end = ringStart[move + 1];
+        for (int i = ringStart[move]; i < end; i += 8) {
+            byte tmp = data[rings[i]];
+            data[rings[i]] = data[rings[i + 1]];
+            data[rings[i + 1]] = data[rings[i + 2]];
+            data[rings[i + 2]] = data[rings[i + 3]];
+            data[rings[i + 3]] = tmp;
+        }
+
+        rotate(move, data);
+    }
+
+    /**
+     * Returns the number of elements a twist moves from one side to another.
+     * A twist can never change the number of misplaced elements of a cube by
+     * more than this.
+     *
+     * @param move
+     *            number of the twist
+     * @return number of elements moved to another side
+     */
+    public int getMovedBetweenSides(int move) {
+        return (ringStart[move + 1] - ringStart[move]) / 2;
+    }
+
+    /**
+     * Returns the most elements any twist moves from one side to another. A
+     * cube with more misplaced elements than this cannot be solved by one
+     * twist.
+     *
+     * @return the largest number of elements moved to another side
+     */
+    public int getMostMovedBetweenSides() {
+        return mostMovedBetweenSides;
+    }
+
+    /**
+     * Moves the elements a twist moves within a side.
+     */
+    private void rotate(int move, byte[] data) {
+        int end = cycleStart[move + 1];
+        for (int i = cycleStart[move]; i < end; i += 4) {
+            byte tmp = data[cycles[i]];
+            data[cycles[i]] = data[cycles[i + 1]];
+            data[cycles[i + 1]] = data[cycles[i + 2]];
+            data[cycles[i + 2]] = data[cycles[i + 3]];
+            data[cycles[i + 3]] = tmp;
+        }
+    }
+
+    // *** Only private functions ahead. These twist a cube of "labels", ***\\
+    // *** every element holding the position it started out at. ***\\
+
+    /**
+     * Computes the table for a single twist.
+     */
+    private void compile(Cube.Axis axis, int row, boolean direction,
+            int[] labels) {
+        for (int i = 0; i < elements; i++) {
+            labels[i] = i;
+        }
+
+        switch (axis) {
+        case X:
+            twistX(labels, row, direction);
+            break;
+        case Y:
+            twistY(labels, row, direction);
+            break;
+        case Z:
+            twistZ(labels, row, direction);
+            break;
+        default:
+            // should not happen, but you never know :)
+            throw new Error("unknown axis in twist");
+        }
+
+        System.arraycopy(labels, 0, from, move(axis, row, direction)
+                * elements, elements);
+    }
+
+    /**
+     * Splits the tables of all twists into cycles of four elements, and fills
+     * in cycleStart and ringStart.
+     *
+     * @return the cycles within a side, and the rings
+     */
+    private int[][] compileCycles() {
+        int[] within = new int[moves * elements];
+        int[] between = new int[moves * elements * 2];
+        int nextCycle = 0;
+        int nextRing = 0;
+
+        int[] cycle = new int[4];
+        boolean[] done = new boolean[elements];
+        int elementsPerSide = size * size;
+
+        for (int move = 0; move < moves; move++) {
+            int base = move * elements;
+            cycleStart[move] = nextCycle;
+            ringStart[move] = nextRing;
+            Arrays.fill(done, false);
+
+            for (int element = 0; element < elements; element++) {
+                if (done[element] || from[base + element] == element) {
+                    continue;
+                }
+
+                int length = 0;
+                int current = element;
+                do {
+                    if (length == cycle.length) {
+                        throw new Error("twist " + move
+                                + " contains a cycle of more than four elements");
+                    }
+                    done[current] = true;
+                    cycle[length++] = current;
+                    current = from[base + current];
+                } while (current != element);
+
+                if (length != cycle.length) {
+                    throw new Error("twist " + move + " contains a cycle of "
+                            + length + " elements");
+                }
+
+                if (cycle[0] / elementsPerSide == cycle[1] / elementsPerSide) {
+                    // a quarter turn never mixes these two kinds of cycles
+                    for (int i = 0; i < cycle.length; i++) {
+                        within[nextCycle++] = cycle[i];
+                    }
+                } else {
+                    for (int i = 0; i < cycle.length; i++) {
+                        between[nextRing++] = cycle[i];
+                    }
+                    for (int i = 0; i < cycle.length; i++) {
+                        between[nextRing++] = (cycle[i] / elementsPerSide)
+                                * Cube.SIDES;
+                    }
+                }
+            }
+        }
+        cycleStart[moves] = nextCycle;
+        ringStart[moves] = nextRing;
+
+        return new int[][] { Arrays.copyOf(within, nextCycle),
+                Arrays.copyOf(between, nextRing) };
+    }
+
+    /**
+     * Computes the "inverse" of a row or column (last = first, etc)
+     */
+    private int mirror(int value) {
+        return size - 1 - value;
+    }
+
+    /**
+     * Computes the position of an element within a side from the row and
+     * column
+     */
+    private int element(int row, int column) {
+        return (row * size) + column;
+    }
+
+    /**
+     * Computes the position of the first element of a side
+     */
+    private int offset(int side) {
+        return side * size * size;
+    }
+
+    /**
+     * rotate side of a cube (side effect of twisting)
+     */
+    private void rotate(int[] data, int side, boolean direction) {
+        int offset = offset(side);
+
+        // rotate the side ring by ring, moving four elements at a time
+        for (int row = 0; row < size / 2; row++) {
+            for (int column = row; column < mirror(row); column++) {
+                int a = offset + element(row, column);
+                int b = offset + element(column, mirror(row));
+                int c = offset + element(mirror(row), mirror(column));
+                int d = offset + element(mirror(column), row);
+
+                if (direction) {
+                    int tmp = data[d];
+                    data[d] = data[c];
+                    data[c] = data[b];
+                    data[b] = data[a];
+                    data[a] = tmp;
+                } else {
+                    int tmp = data[a];
+                    data[a] = data[b];
+                    data[b] = data[c];
+                    data[c] = data[d];
+                    data[d] = tmp;
+                }
+            }
+        }
+    }
+
+    /**
+     * Twist cube on the X-axis.
+     */
+    private void twistX(int[] data, int firstRow, boolean direction) {
+        int left = offset(Cube.LEFT);
+        int front = offset(Cube.FRONT);
+        int right = offset(Cube.RIGHT);
+        int back = offset(Cube.BACK);
+        int firstElement = firstRow * size;
+
+        for (int element = firstElement; element < size * size; element++) {
+            if (direction) {
+                int tmp = data[back + element];
+                data[back + element] = data[right + element];
+                data[right + element] = data[front + element];
+                data[front + element] = data[left + element];
+                data[left + element] = tmp;
+            } else {
+                int tmp = data[left + element];
+                data[left + element] = data[front + element];
+                data[front + element] = data[right + element];
+                data[right + element] = data[back + element];
+                data[back + element] = tmp;
+            }
+        }
+
+        rotate(data, Cube.BOTTOM, direction);
+    }
+
+    /**
+     * Twist cube on the Y-axis.
+     */
+    private void twistY(int[] data, int firstColumn, boolean direction) {
+        int top = offset(Cube.TOP);
+        int front = offset(Cube.FRONT);
+        int back = offset(Cube.BACK);
+        int bottom = offset(Cube.BOTTOM);
+
+        for (int row = 0; row < size; row++) {
+            for (int column = firstColumn; column < size; column++) {
+                int element = element(row, column);
+
+                // back is "mirrored"
+                int backElement = element(mirror(row), mirror(column));
+
+                if (direction) {
+                    int tmp = data[top + element];
+                    data[top + element] = data[front + element];
+                    data[front + element] = data[bottom + element];
+                    data[bottom + element] = data[back + backElement];
+                    data[back + backElement] = tmp;
+                } else {
+                    int tmp = data[top + element];
+                    data[top + element] = data[back + backElement];
+                    data[back + backElement] = data[bottom + element];
+                    data[bottom + element] = data[front + element];
+                    data[front + element] = tmp;
+                }
+            }
+        }
+
+        rotate(data, Cube.RIGHT, direction);
+    }
+
+    /**
+     * Twist cube on the Z-axis.
+     */
+    private void twistZ(int[] data, int firstRow, boolean direction) {
+        int top = offset(Cube.TOP);
+        int left = offset(Cube.LEFT);
+        int right = offset(Cube.RIGHT);
+        int bottom = offset(Cube.BOTTOM);
+
+        for (int row = firstRow; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                int topElement = element(mirror(row), column);
+                int rightElement = element(column, row);
+                int bottomElement = element(row, mirror(column));
+                int leftElement = element(mirror(column), mirror(row));
+
+                if (direction) {
+                    int tmp = data[top + topElement];
+                    data[top + topElement] = data[left + leftElement];
+                    data[left + leftElement] = data[bottom + bottomElement];
+                    data[bottom + bottomElement] = data[right + rightElement];
+                    data[right + rightElement] = tmp;
+                } else {
+                    int tmp = data[top + topElement];
+                    data[top + topElement] = data[right + rightElement];
+                    data[right + rightElement] = data[bottom + bottomElement];
+                    data[bottom + bottomElement] = data[left + leftElement];
+                    data[left + leftElement] = tmp;
+                }
+            }
+        }
+
+        rotate(data, Cube.BACK, !direction);
+    }
+}
@@ -0,0 +1,203 @@
+package rubiks.sequential;
+
+import java.util.HashMap;
+
+/**
+ * Parity of the number of twists solving a cube of a given size. Every twist
+ * turns the outer row of its axis, moving four corners in one cycle, and the
+ * other rows it turns do not move any corners. So every twist changes the
+ * parity of the permutation of the corners, and any sequence solving a cube
+ * has as many twists, modulo 2, as this permutation. Only bounds of that
+ * parity can hold a solution.
+ *
+ * The corners can be told apart by their colors. Positions are relative to
+ * the corner which never moves, see {@link MoveTable}. Tables are shared by
+ * all threads and all cubes of the same size.
+ *
+ */
+public final class ParityTable {
+
+    private static final int CORNERS = 8;
+
+    // tables for each cube size, built on first use
+    private static volatile ParityTable[] tables = new ParityTable[0];
+
+    private final int size;
+
+    // elements of each corner position: on its left or right, top or bottom,
+    // and back or front side. Position x * 4 + y * 2 + z, each 0 for the
+    // first of these sides and 1 for the second
+    final int[][] cornerElements = new int[CORNERS][];
+
+    // position of each corner once the cube is solved, by the sides of its
+    // colors (a bit for each side)
+    final HashMap<Integer, Integer> homes = new HashMap<Integer, Integer>();
+
+    /**
+     * Returns the (shared) table for cubes of a given size.
+     *
+     * @param size
+     *            size of the cube
+     * @return the parity table for this size
+     */
+    public static ParityTable get(int size) {
+        ParityTable[] current = tables;
+        if (size < current.length && current[size] != null) {
+            return current[size];
+        }
+        return create(size);
+    }
+
+    private static synchronized ParityTable create(int size) {
+        ParityTable[] current = tables;
+        if (size < current.length && current[size] != null) {
+            return current[size];
+        }
+
+        ParityTable[] result = new ParityTable[Math.max(current.length,
+                size + 1)];
+        System.arraycopy(current, 0, result, 0, current.length);
+        result[size] = new ParityTable(size);
+        tables = result;
+
+        return result[size];
+    }
+
+    private ParityTable(int size) {
+        this.size = size;
+        int last = size - 1;
+
+        // the elements of each corner: on the left or right, top or bottom,
+        // and back or front side
+        int corners = 0;
+        for (int x = 0; x <= last && size > 1; x += last) {
+            for (int y = 0; y <= last; y += last) {
+                for (int z = 0; z <= last; z += last) {
+                    cornerElements[corners++] = new int[] {
+                            element(x == 0 ? Cube.LEFT : Cube.RIGHT, x, y, z),
+                            element(y == 0 ? Cube.TOP : Cube.BOTTOM, x, y, z),
+                            element(z == 0 ? Cube.BACK : Cube.FRONT, x, y, z) };
+                }
+            }
+        }
+
+        int[] sides = new int[3];
+        for (int corner = 0; corner < corners; corner++) {
+            for (int i = 0; i < 3; i++) {
+                sides[i] = cornerElements[corner][i] / (size * size);
+            }
+            homes.put(bits(sides), corner);
+        }
+    }
+
+    /**
+     * Returns the parity of the number of twists of any sequence solving a
+     * cube.
+     *
+     * @param cube
+     *            cube of the size of this table
+     * @return 0 if the cube can only be solved in an even number of twists, 1
+     *         if only in an odd number
+     */
+    public int parity(Cube cube) {
+        if (size == 1) {
+            return 0;
+        }
+
+        byte[] homeSide = homeSides(cube);
+        int[] homeSides = new int[3];
+        int[] permutation = new int[CORNERS];
+        for (int corner = 0; corner < CORNERS; corner++) {
+            for (int i = 0; i < 3; i++) {
+                homeSides[i] = homeSide[cube
+                        .getColor(cornerElements[corner][i])];
+            }
+            Integer home = homes.get(bits(homeSides));
+            if (home == null) {
+                throw new Error("cube contains a corner that does not exist");
+            }
+            permutation[corner] = home;
+        }
+
+        // count the cycles of the permutation
+        boolean[] seen = new boolean[CORNERS];
+        int result = 0;
+        for (int start = 0; start < CORNERS; start++) {
+            if (seen[start]) {
+                continue;
+            }
+            int length = 0;
+            for (int i = start; !seen[i]; i = permutation[i]) {
+                seen[i] = true;
+                length++;
+            }
+            result ^= (length + 1) & 1;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the side of each color once the cube is solved, the inverse of
+     * {@link Cube#getSolvedColors()}.
+     */
+    byte[] homeSides(Cube cube) {
+        byte[] result = new byte[Cube.SIDES];
+        byte[] solved = cube.getSolvedColors();
+        for (int side = 0; side < Cube.SIDES; side++) {
+            result[solved[side]] = (byte) side;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the sides of a corner as a set of bits, the key of homes.
+     */
+    static int bits(int[] sides) {
+        int result = 0;
+        for (int side : sides) {
+            result |= 1 << side;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the element of a side at a location in space: x from left to
+     * right, y from top to bottom, z from back to front, as in
+     * {@link CubieTable}.
+     */
+    int element(int side, int x, int y, int z) {
+        int last = size - 1;
+        int row;
+        int column;
+
+        switch (side) {
+        case Cube.TOP:
+            row = z;
+            column = x;
+            break;
+        case Cube.LEFT:
+            row = y;
+            column = z;
+            break;
+        case Cube.FRONT:
+            row = y;
+            column = x;
+            break;
+        case Cube.RIGHT:
+            row = y;
+            column = last - z;
+            break;
+        case Cube.BACK:
+            row = y;
+            column = last - x;
+            break;
+        case Cube.BOTTOM:
+            row = last - z;
+            column = x;
+            break;
+        default:
+            throw new Error("unknown side: " + side);
+        }
+        return side * size * size + row * size + column;
+    }
+}
@@ -0,0 +1,229 @@
+package rubiks.sequential;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Pattern database of some of the pieces of a 3x3x3 cube: for every
+ * arrangement of these pieces, the number of twists needed to solve them
+ * alone. A cube cannot be solved in fewer twists than any part of it, so
+ * this is a lower bound on the twists needed to solve the cube, which the
+ * search uses to skip cubes that cannot be solved within the bound (IDA*).
+ *
+ * The pieces are described by two coordinates of {@link CubieTable}. There
+ * is a database of the corners (permutation and orientation), and one of
+ * each group of edges together with the centers. Every twist of a side
+ * moves pieces of all of them, so their lower bounds cannot be added up,
+ * only the largest one is used. The corner which never moves decides what
+ * solved means, so the lower bounds hold no matter how the cube as a whole
+ * is turned. The distances are found by a breadth first search from the
+ * solved pieces, see {@link PatternDatabaseGenerator}.
+ *
+ * The distances are kept in 4 bits each, so any entry can be looked up on
+ * its own. This is needed for the dual lookups of {@link CubieCube}, which
+ * look up the pieces of the inverse of a cube: those do not follow from the
+ * entry before the twist. The databases can be written to a file, and
+ * mapped into memory from it with {@link #load(String)} instead of being
+ * built on first use.
+ *
+ * There is only one set of databases, shared by all threads.
+ *
+ */
+public final class PatternDatabase {
+
+    // number of the corner database, the edge groups follow
+    static final int CORNERS = 0;
+
+    static final int COUNT = 1 + CubieTable.EDGE_GROUPS;
+
+    // value of pieces not reached yet, only used while generating
+    static final int UNKNOWN = 15;
+
+    // first int of a pattern database file
+    private static final int MAGIC = 0x50444234;
+
+    private static PatternDatabase[] databases;
+
+    /*
+     * first and second coordinate after each twist, at index coordinate *
+     * MOVES + move, see CubieTable
+     */
+    final int[] firstMoves;
+
+    final int[] secondMoves;
+
+    final int firstStates;
+
+    final int secondStates;
+
+    final int entries; // firstStates * secondStates
+
+    final int solved; // index of the solved pieces
+
+    /*
+     * twists needed to solve the pieces, 4 bits for the pieces at index first
+     * * secondStates + second
+     */
+    private final ByteBuffer distances;
+
+    /**
+     * Returns the (shared) databases, building them on first use with all
+     * available processors. The corner database is first, followed by the
+     * database of each edge group.
+     *
+     * @return the pattern databases
+     */
+    public static synchronized PatternDatabase[] get() {
+        if (databases == null) {
+            PatternDatabaseGenerator generator = new PatternDatabaseGenerator(
+                    Runtime.getRuntime().availableProcessors());
+            PatternDatabase[] result = new PatternDatabase[COUNT];
+            for (int pattern = 0; pattern < COUNT; pattern++) {
+                result[pattern] = generator.generate(pattern);
+            }
+            databases = result;
+        }
+        return databases;
+    }
+
+    /**
+     * Maps databases written by {@link PatternDatabaseGenerator} into memory,
+     * and uses them from then on instead of building them. Must be done
+     * before searching.
+     *
+     * @param fileName
+     *            file to load the databases from
+     * @return the loaded databases
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    public static synchronized PatternDatabase[] load(String fileName)
+            throws IOException {
+        CubieTable table = CubieTable.get();
+        PatternDatabase[] result = new PatternDatabase[COUNT];
+
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            if (file.length() < 8 || file.readInt() != MAGIC
+                    || file.readInt() != COUNT) {
+                throw new IOException(fileName
+                        + " is not a pattern database file");
+            }
+
+            // the mappings stay valid once the file is closed
+            long offset = 8 + 8 * COUNT;
+            for (int pattern = 0; pattern < COUNT; pattern++) {
+                PatternDatabase empty = new PatternDatabase(table, pattern,
+                        null);
+                int firstStates = file.readInt();
+                int secondStates = file.readInt();
+                if (firstStates != empty.firstStates
+                        || secondStates != empty.secondStates) {
+                    throw new IOException("pattern database " + pattern
+                            + " has " + firstStates + " * " + secondStates
+                            + " entries instead of " + empty.firstStates
+                            + " * " + empty.secondStates);
+                }
+
+                long length = bytes(empty.entries);
+                if (offset + length > file.length()) {
+                    throw new IOException(fileName + " is too short");
+                }
+                result[pattern] = new PatternDatabase(table, pattern, file
+                        .getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                offset, length));
+                offset += length;
+            }
+        } finally {
+            file.close();
+        }
+
+        databases = result;
+        return result;
+    }
+
+    /**
+     * Writes databases to a file, to be loaded with {@link #load(String)}.
+     *
+     * @param databases
+     *            all databases, as returned by {@link #get()}
+     * @param fileName
+     *            file to write to
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public static void write(PatternDatabase[] databases, String fileName)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(fileName)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(databases.length);
+            for (PatternDatabase database : databases) {
+                out.writeInt(database.firstStates);
+                out.writeInt(database.secondStates);
+            }
+            for (PatternDatabase database : databases) {
+                for (int i = 0; i < database.distances.capacity(); i++) {
+                    out.writeByte(database.distances.get(i));
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Describes the pieces of a database, with the given distances.
+     *
+     * @param table
+     *            the cubie table
+     * @param pattern
+     *            number of the database, see {@link #get()}
+     * @param distances
+     *            distances, 4 bits each
+     */
+    PatternDatabase(CubieTable table, int pattern, ByteBuffer distances) {
+        if (pattern == CORNERS) {
+            firstMoves = table.cornerPermutationMoves;
+            firstStates = CubieTable.CORNER_PERMUTATIONS;
+            secondMoves = table.cornerOrientationMoves;
+            secondStates = CubieTable.CORNER_ORIENTATIONS;
+            solved = 0;
+        } else {
+            firstMoves = table.edgeMoves;
+            firstStates = CubieTable.EDGE_STATES;
+            secondMoves = table.centerMoves;
+            secondStates = CubieTable.CENTER_STATES;
+            solved = table.solvedEdges[pattern - 1] * secondStates;
+        }
+        entries = firstStates * secondStates;
+        this.distances = distances;
+    }
+
+    /**
+     * Returns the number of twists needed to solve the pieces.
+     *
+     * @param first
+     *            first coordinate of the pieces
+     * @param second
+     *            second coordinate of the pieces
+     * @return the number of twists needed to solve the pieces
+     */
+    public int distance(int first, int second) {
+        int index = first * secondStates + second;
+        return (distances.get(index >> 1) >> ((index & 1) << 2)) & 15;
+    }
+
+    /**
+     * Returns the number of bytes the distances of a database take.
+     */
+    static int bytes(int entries) {
+        return (entries + 1) / 2;
+    }
+}
@@ -1,5 +1,8 @@
 package rubiks.sequential;
 
+import java.io.File;
+import java.io.IOException;
+
 /**
  * Solver for rubik's cube puzzle.
  * 
@@ -10,47 +13,317 @@ public class Rubiks {
     
     public static final boolean PRINT_SOLUTION = false;
 
+    // generate code for the twists of the cube size being solved
+    private static boolean generateKernel = false;
+
+    // twist with SIMD instructions
+    private static boolean useVectors = false;
+
+    // smallest estimate over the bound seen in the current iteration, the
+    // bound of the next iteration
+    private static int nextBound;
+
+    // depth of the perimeter table, 0 to search without one
+    private static int perimeterDepth = PerimeterTable.AUTOMATIC;
+
+    // cubes close to solved, see perimeterSolutions(). Null if not used
+    private static PerimeterTable perimeter;
+
+    // size of the transposition table in megabytes, 0 to search without one
+    private static int transpositionMemory = TranspositionTable.DEFAULT_MEMORY;
+
+    // solutions of the cubes searched before, see solutions(). Null if not
+    // used
+    private static TranspositionTable transpositions;
+
+    // centers of 4x4x4 cubes, see solutions(). Null if not used
+    private static CenterDatabase centers;
+
+    // count the solutions by searching from both ends, see MiddleSearch
+    private static boolean meetInTheMiddle = false;
+
+    // count the cubes at each distance from solved instead of solving, up to
+    // this distance (0 for all), see ExternalEnumeration. -1 to solve
+    private static int enumerateDepth = -1;
+
+    // directory for the files of the enumeration
+    private static File spillDirectory = new File(
+            System.getProperty("java.io.tmpdir"));
+
+    // find a short solution quickly instead of counting the optimal ones, see
+    // TwoPhaseSolver
+    private static boolean fastMode = false;
+
+    // milliseconds the fast mode looks for shorter solutions
+    private static long deadline = 1000;
+
     /**
      * Recursive function to find a solution for a given cube. Only searches to
-     * the bound set in the cube object.
+     * the bound set in the cube object. Twists the cube in place, and undoes
+     * each twist before trying the next one, so the cube is unchanged when
+     * this function returns. Only tries the twist sequences in the sequence
+     * table, and weighs the solutions found so every solution is counted.
+     * Skips cubes which cannot be solved within the bound according to their
+     * lower bound (IDA*), and keeps track of the bound the next iteration
+     * needs in nextBound.
      * 
      * @param cube
      *            cube to solve
-     * @param cache
-     *            cache of cubes used for new cube objects
+     * @param moves
+     *            precomputed twists for cubes of this size
+     * @param sequences
+     *            twist sequences to try for cubes of this size
+     * @param sequence
+     *            state of the twists the cube is a result of
      * @return the number of solutions found
      */
-    private static int solutions(Cube cube, CubeCache cache) {
+    private static int solutions(Cube cube, MoveTable moves,
+            SequenceTable sequences, int sequence) {
         if (cube.isSolved()) {
-            return 1;
+            return sequences.runWeights[sequence];
         }
 
-        if (cube.getTwists() >= cube.getBound()) {
+        int estimate = cube.getTwists() + cube.lowerBound(moves, centers);
+        if (estimate > cube.getBound()) {
+            if (estimate < nextBound) {
+                nextBound = estimate;
+            }
             return 0;
         }
 
-        // generate all possible cubes from this one by twisting it in
-        // every possible way. Gets new objects from the cache
-        Cube[] children = cube.generateChildren(cache);
+        if (perimeter != null
+                && cube.getBound() - cube.getTwists() <= perimeter.getDepth()) {
+            return perimeterSolutions(cube, moves, sequences, sequence);
+        }
+
+        // a cube reached by another sequence before need not be searched
+        // again
+        int left = cube.getBound() - cube.getTwists();
+        boolean store = transpositions != null
+                && left >= TranspositionTable.MIN_DEPTH;
+        if (store) {
+            long entry = transpositions.get(cube.getFingerprint(), sequence,
+                    left);
+            if (entry != TranspositionTable.MISSING) {
+                found(entry, cube.getBound());
+                return TranspositionTable.count(entry);
+            }
+        }
 
         int result = 0;
+        int base = sequence * moves.getMoves();
+
+        // once the next bound is known to be one more than this one, the
+        // cubes at the bound need not be looked at one by one
+        if (cube.getTwists() + 1 == cube.getBound()
+                && nextBound == cube.getBound() + 1 && !PRINT_SOLUTION) {
+            // children are at the bound, so only need to know if they are
+            // solved. No need to actually twist the cube for that.
+            for (int move = 0; move < moves.getMoves(); move++) {
+                int weight = sequences.leafWeights[base + move];
+                if (weight != 0 && cube.isSolvedAfter(moves, move)) {
+                    result += weight;
+                }
+            }
+            return result;
+        }
+
+        // try all twists of this cube worth trying
+        for (int move = 0; move < moves.getMoves(); move++) {
+            int next = sequences.next[base + move];
+            if (next < 0) {
+                continue;
+            }
+
+            cube.apply(moves, move);
 
-        for (Cube child : children) {
             // recursion step
-            int childSolutions = solutions(child, cache);
+            int childSolutions = solutions(cube, moves, sequences, next);
             if (childSolutions > 0) {
-                result += childSolutions;
+                result += sequences.weights[base + move] * childSolutions;
                 if (PRINT_SOLUTION) {
-                    child.print(System.err);
+                    cube.print(System.err);
                 }
             }
-            // put child object in cache
-            cache.put(child);
+
+            cube.undo(moves, move);
+        }
+
+        if (store) {
+            transpositions.put(cube.getFingerprint(), sequence, left, result,
+                    over(cube.getBound()));
+        }
+        return result;
+    }
+
+    /**
+     * Counts the solutions of a cube close to the bound, with the
+     * {@link PerimeterTable}. Only a cube exactly as many twists from solved
+     * as left to the bound has solutions (a shorter solution would have been
+     * found with an earlier bound). Its shortest sequences not starting on
+     * the axis of the run of twists the cube is a result of end this run, so
+     * they count with the weight of the run. The sequences going on with the
+     * run are tried one by one, as the weight of the run depends on how it
+     * goes on. Needs a sequence table built from the rules, see
+     * {@link SequenceTable}.
+     * 
+     * @param cube
+     *            cube to solve, at most the depth of the table from the bound
+     * @param moves
+     *            precomputed twists for cubes of this size
+     * @param sequences
+     *            twist sequences to try for cubes of this size
+     * @param sequence
+     *            state of the twists the cube is a result of
+     * @return the number of solutions found
+     */
+    private static int perimeterSolutions(Cube cube, MoveTable moves,
+            SequenceTable sequences, int sequence) {
+        if (cube.isSolved()) {
+            return sequences.runWeights[sequence];
+        }
+
+        int slot = perimeter.find(cube.getFingerprint());
+        int distance = slot < 0 ? perimeter.getDepth() + 1 : perimeter
+                .distance(slot);
+        if (distance != cube.getBound() - cube.getTwists()) {
+            int estimate = cube.getTwists() + distance;
+            if (estimate > cube.getBound() && estimate < nextBound) {
+                nextBound = estimate;
+            }
+            return 0;
+        }
+
+        int axis = sequences.runAxes[sequence];
+        int result = sequences.runWeights[sequence]
+                * perimeter.solutions(slot, axis);
+        if (axis < 0) {
+            return result;
+        }
+
+        int base = sequence * moves.getMoves();
+        int axisMoves = 2 * (cube.getSize() - 1);
+        for (int move = axis * axisMoves; move < (axis + 1) * axisMoves; move++) {
+            int next = sequences.next[base + move];
+            if (next < 0) {
+                continue;
+            }
+
+            cube.apply(moves, move);
+            result += sequences.weights[base + move]
+                    * perimeterSolutions(cube, moves, sequences, next);
+            cube.undo(moves, move);
         }
 
         return result;
     }
 
+    /**
+     * Same as {@link #solutions(Cube, MoveTable, SequenceTable, int)}, for the
+     * cubie form of a 3x3x3 cube, with the lower bounds of the
+     * {@link PatternDatabase}s.
+     * 
+     * @param cube
+     *            cube to solve
+     * @param sequences
+     *            twist sequences to try for cubes of size 3
+     * @param sequence
+     *            state of the twists the cube is a result of
+     * @return the number of solutions found
+     */
+    private static int solutions(CubieCube cube, SequenceTable sequences,
+            int sequence) {
+        if (cube.isSolved()) {
+            return sequences.runWeights[sequence];
+        }
+
+        // an unsolved cube needs at least one more twist
+        int estimate = cube.getTwists()
+                + Math.max(cube.lowerBound(cube.getBound() - cube.getTwists()), 1);
+        if (estimate > cube.getBound()) {
+            if (estimate < nextBound) {
+                nextBound = estimate;
+            }
+            return 0;
+        }
+
+        // once the next bound is known to be one more than this one, the
+        // cubes below the bound need not be looked at one by one
+        if (nextBound == cube.getBound() + 1) {
+            if (cube.getTwists() + 1 == cube.getBound()) {
+                return sequences.leafSolutions(sequence, cube.solvingMoves());
+            }
+
+            if (cube.getTwists() + 2 == cube.getBound()) {
+                // evaluate the last two twists for all children at once
+                return cube.countSolutionsWithinTwo(sequences, sequence);
+            }
+        }
+
+        int left = cube.getBound() - cube.getTwists();
+        boolean store = transpositions != null
+                && left >= TranspositionTable.MIN_DEPTH;
+        long key = 0;
+        if (store) {
+            key = (long) sequence << 32 | cube.getCornerKey();
+            long entry = transpositions.get(cube.getEdgeKey(), key, left);
+            if (entry != TranspositionTable.MISSING) {
+                found(entry, cube.getBound());
+                return TranspositionTable.count(entry);
+            }
+        }
+
+        int result = 0;
+        for (int move = 0; move < cube.getMoves(); move++) {
+            int next = sequences.next(sequence, move);
+            if (next >= 0) {
+                cube.apply(move);
+                result += sequences.weight(sequence, move)
+                        * solutions(cube, sequences, next);
+                cube.undo(move);
+            }
+        }
+
+        if (store) {
+            transpositions.put(cube.getEdgeKey(), key, left, result,
+                    over(cube.getBound()));
+        }
+        return result;
+    }
+
+    /**
+     * Sets the next bound for a cube found in the transposition table, as
+     * searching it would have.
+     * 
+     * @param entry
+     *            entry of the cube in the table
+     * @param bound
+     *            bound of the current iteration
+     */
+    private static void found(long entry, int bound) {
+        int over = TranspositionTable.over(entry);
+        if (over != TranspositionTable.NONE && bound + over < nextBound) {
+            nextBound = bound + over;
+        }
+    }
+
+    /**
+     * Returns how far over the bound the next bound is, to be stored in the
+     * transposition table with a cube searched. The next bound only goes down,
+     * so the smallest estimate over the bound seen while searching the cube is
+     * at least this.
+     * 
+     * @param bound
+     *            bound of the current iteration
+     * @return the next bound minus the bound, or TranspositionTable.NONE
+     */
+    private static int over(int bound) {
+        if (nextBound == Integer.MAX_VALUE) {
+            return TranspositionTable.NONE;
+        }
+        return nextBound - bound;
+    }
+
     /**
      * Solves a Rubik's cube by iteratively searching for solutions with a
      * greater depth. This guarantees the optimal solution is found. Repeats all
@@ -60,20 +333,176 @@ public class Rubiks {
      *            the cube to solve
      */
     private static void solve(Cube cube) {
-        // cache used for cube objects. Doing new Cube() for every move
-        // overloads the garbage collector
-        CubeCache cache = new CubeCache(cube.getSize());
+        // twists are applied to the cube in place, no new cube objects needed
+        MoveTable moves = MoveTable.get(cube.getSize());
+        SequenceTable sequences = SequenceTable.get(cube.getSize());
+        if (generateKernel && !moves.generateKernel()) {
+            System.err.println("cannot generate twist code for this size");
+        }
+        if (useVectors && !moves.useVectors()) {
+            System.err.println("Vector API not available, not using SIMD");
+        }
+
+        // every cube of size 2 is in a table, no need to search. The table
+        // counts all twist sequences though, not only those of --fsm
+        if (cube.getSize() == PocketTable.SIZE && !PRINT_SOLUTION
+                && cube.getSequence() == SequenceTable.START
+                && sequences.runAxes != null) {
+            solveFromTable(cube);
+            return;
+        }
+
         int bound = 0;
         int result = 0;
 
+        // a 3x3x3 cube is twisted much faster in its cubie form. Solutions
+        // can only be printed in the element form though.
+        boolean useCubies = cube.getSize() == CubieTable.SIZE
+                && !PRINT_SOLUTION;
+        CubieCube cubies = null;
+
+        // the tables are built once a bound needs them, see needsTables()
+        boolean tables = false;
+        perimeter = null;
+        transpositions = null;
+        centers = null;
+
+        // first bound which can have a solution
+        int next = Math.max(cube.lowerBound(moves), 1);
+
+        // every twist changes the parity of the cube, so only bounds of that
+        // parity can have a solution (a solved cube is found at any bound)
+        int parity = cube.getParity();
+
         System.out.print("Bound now:");
 
         while (result == 0) {
-            bound++;
+            // bounds skipped cannot have a solution. They are printed anyway,
+            // so the output does not depend on the lower bounds used
+            while (bound < next
+                    || (bound % 2 != parity && !cube.isSolved())) {
+                bound++;
+                System.out.print(" " + bound);
+            }
             cube.setBound(bound);
 
-            System.out.print(" " + bound);
-            result = solutions(cube, cache);
+            if (!tables && needsTables(cube, moves)) {
+                tables = true;
+                if (useCubies) {
+                    cubies = new CubieCube(cube);
+                }
+
+                // the element form looks up the cubes close to the bound, if
+                // the weights of the sequences tried are known
+                if (cubies == null && perimeterDepth != 0 && !PRINT_SOLUTION
+                        && sequences.runAxes != null) {
+                    perimeter = PerimeterTable.get(cube, perimeterDepth);
+                }
+
+                if (transpositionMemory != 0 && !PRINT_SOLUTION) {
+                    transpositions = TranspositionTable.get(cube.getSize(),
+                            transpositionMemory);
+                }
+
+                if (cube.getSize() == CenterDatabase.SIZE) {
+                    centers = CenterDatabase.get();
+                }
+
+                // the tables may prove this bound too small as well
+                next = Math.max(cubies != null ? cubies.lowerBound() : cube
+                        .lowerBound(moves, centers), bound);
+                continue;
+            }
+
+            nextBound = Integer.MAX_VALUE;
+            if (cubies != null) {
+                cubies.setBound(bound);
+                result = solutions(cubies, sequences, cube.getSequence());
+            } else {
+                result = solutions(cube, moves, sequences, cube.getSequence());
+            }
+            next = nextBound;
+            result *= cube.getWeight();
+        }
+
+        System.out.println();
+        System.out.println("Solving cube possible in " + result + " ways of "
+                + bound + " steps");
+    }
+
+    /**
+     * Returns if searching a cube within its bound is worth building the
+     * tables of the search: the pattern or center databases, perimeter and
+     * transposition table. Not if its misplaced elements leave at most one
+     * twist to spare, as then nearly every twist tried has to put as many
+     * elements in place as a twist can, and the search ends quickly without
+     * them. So cubes a few twists from solved need no tables at all.
+     * 
+     * @param cube
+     *            cube to search, with its bound set
+     * @param moves
+     *            precomputed twists for cubes of this size
+     * @return true if the tables should be used
+     */
+    private static boolean needsTables(Cube cube, MoveTable moves) {
+        return cube.getBound() - cube.getTwists() > cube.lowerBound(moves) + 1;
+    }
+
+    /**
+     * Same as {@link #solve(Cube)}, but looks up the number of twists and
+     * solutions of a cube of size 2 in the {@link PocketTable}. Prints the
+     * same output.
+     */
+    private static void solveFromTable(Cube cube) {
+        PocketTable table = PocketTable.get();
+        int index = table.index(cube);
+
+        // a solved cube is found at the first bound
+        int bound = Math.max(table.distance(index), 1);
+        int result = table.solutions(index) * cube.getWeight();
+
+        System.out.print("Bound now:");
+        for (int i = 1; i <= bound; i++) {
+            System.out.print(" " + i);
+        }
+        System.out.println();
+        System.out.println("Solving cube possible in " + result + " ways of "
+                + bound + " steps");
+    }
+
+    /**
+     * Same as {@link #solve(Cube)}, but counts the solutions of each bound
+     * with a {@link MiddleSearch}. Bounds are tried in the same order, so the
+     * output is the same.
+     * 
+     * @param cube
+     *            the cube to solve
+     */
+    private static void solveFromBothEnds(Cube cube) {
+        MiddleSearch search = new MiddleSearch(cube);
+        int bound = 0;
+        long result = 0;
+
+        int next = Math.max(cube.lowerBound(MoveTable.get(cube.getSize())), 1);
+        int parity = cube.getParity();
+
+        System.out.print("Bound now:");
+
+        while (result == 0) {
+            while (bound < next
+                    || (bound % 2 != parity && !cube.isSolved())) {
+                bound++;
+                System.out.print(" " + bound);
+            }
+
+            if (cube.isSolved()) {
+                // found at the first bound, as by solve()
+                result = 1;
+            } else {
+                result = search.solutions(cube, bound);
+            }
+            result *= cube.getWeight();
+            next = bound + 1;
         }
 
         System.out.println();
@@ -99,6 +528,28 @@ public class Rubiks {
                 .println("--seed SEED\t\tSeed of random generator (default: 0");
         System.out
                 .println("--threads THREADS\t\tNumber of threads to use (default: 1, other values not supported by sequential version)");
+        System.out
+                .println("--kernel\t\tGenerate code for the twists of this size (needs asm)");
+        System.out
+                .println("--vector\t\tTwist with SIMD instructions (needs java 16+, --add-modules jdk.incubator.vector)");
+        System.out
+                .println("--fsm FILE_NAME\t\tOnly try the twist sequences in this table (see SequenceGenerator). Cubes of size 2 are then searched instead of looked up");
+        System.out
+                .println("--perimeter DEPTH\t\tLook up the cubes this close to the bound (default: as close as fits in a table of 2^16 cubes, 0 for none). Not used with --fsm");
+        System.out
+                .println("--transpositions MEGABYTES\t\tRemember the solutions of the cubes searched in a table this large (default: 64, 0 for none)");
+        System.out
+                .println("--middle\t\tSearch from both the cube and the solved cube (meet in the middle), keeping all cubes halfway in memory");
+        System.out
+                .println("--enumerate DEPTH\t\tInstead of solving, count the cubes at each distance from solved up to DEPTH twists (0 for all), keeping them on disk");
+        System.out
+                .println("--spill DIRECTORY\t\tDirectory for the files of --enumerate (default: java.io.tmpdir)");
+        System.out
+                .println("--mode MODE\t\tcount: count all optimal solutions (default). fast: print ever shorter solutions of a cube of size 3 (two phase algorithm), twists given by axis, first row and direction");
+        System.out
+                .println("--deadline MILLISECONDS\t\tTime the fast mode looks for shorter solutions after the first one, not counting building its tables (default: 1000)");
+        System.out
+                .println("--pdb FILE_NAME\t\tMap pattern databases from this file: those of size 3, the centers of size 4, the table of all cubes of size 2, or the tables of the fast mode (see PatternDatabaseGenerator). Can be given for each");
         System.out.println("");
         System.out
                 .println("--file FILE_NAME\t\tLoad cube from given file instead of generating it");
@@ -136,6 +587,62 @@ public class Rubiks {
             } else if (arguments[i].equalsIgnoreCase("--file")) {
                 i++;
                 fileName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--kernel")) {
+                generateKernel = true;
+            } else if (arguments[i].equalsIgnoreCase("--vector")) {
+                useVectors = true;
+            } else if (arguments[i].equalsIgnoreCase("--fsm")) {
+                i++;
+                try {
+                    SequenceTable.load(arguments[i]);
+                } catch (Exception e) {
+                    System.err.println("Cannot load sequence table: " + e);
+                    System.exit(1);
+                }
+            } else if (arguments[i].equalsIgnoreCase("--perimeter")) {
+                i++;
+                perimeterDepth = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--transpositions")) {
+                i++;
+                transpositionMemory = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--middle")) {
+                meetInTheMiddle = true;
+            } else if (arguments[i].equalsIgnoreCase("--enumerate")) {
+                i++;
+                enumerateDepth = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--spill")) {
+                i++;
+                spillDirectory = new File(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--mode")) {
+                i++;
+                if (arguments[i].equalsIgnoreCase("fast")) {
+                    fastMode = true;
+                } else if (arguments[i].equalsIgnoreCase("count")) {
+                    fastMode = false;
+                } else {
+                    System.err.println("unknown mode : " + arguments[i]);
+                    printUsage();
+                    System.exit(1);
+                }
+            } else if (arguments[i].equalsIgnoreCase("--deadline")) {
+                i++;
+                deadline = Long.parseLong(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--pdb")) {
+                i++;
+                try {
+                    if (CenterDatabase.isCenterDatabase(arguments[i])) {
+                        CenterDatabase.load(arguments[i]);
+                    } else if (PocketTable.isPocketTable(arguments[i])) {
+                        PocketTable.load(arguments[i]);
+                    } else if (TwoPhaseTable.isTwoPhaseTable(arguments[i])) {
+                        TwoPhaseTable.load(arguments[i]);
+                    } else {
+                        PatternDatabase.load(arguments[i]);
+                    }
+                } catch (Exception e) {
+                    System.err.println("Cannot load pattern databases: " + e);
+                    System.exit(1);
+                }
             } else if (arguments[i].equalsIgnoreCase("--help") || arguments[i].equalsIgnoreCase("-h")) {
                 printUsage();
                 System.exit(0);
@@ -167,7 +674,26 @@ public class Rubiks {
         
         // solve
         long start = System.currentTimeMillis();
-        solve(cube);
+        if (enumerateDepth >= 0) {
+            try {
+                new ExternalEnumeration(spillDirectory).run(cube,
+                        enumerateDepth);
+            } catch (IOException e) {
+                System.err.println("Cannot enumerate cubes: " + e);
+                System.exit(1);
+            }
+        } else if (fastMode) {
+            if (cube.getSize() != TwoPhaseTable.SIZE) {
+                System.err.println("fast mode only solves cubes of size "
+                        + TwoPhaseTable.SIZE);
+                System.exit(1);
+            }
+            new TwoPhaseSolver(deadline).solve(cube);
+        } else if (meetInTheMiddle) {
+            solveFromBothEnds(cube);
+        } else {
+            solve(cube);
+        }
         long end = System.currentTimeMillis();
 
         // NOTE: this is printed to standard error! The rest of the output is
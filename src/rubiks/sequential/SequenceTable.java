@@ -0,0 +1,434 @@
+package rubiks.sequential;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The twist sequences the search tries, for cubes of a given size. Many
+ * sequences twist a cube into the same state as a shorter or an equally long
+ * sequence, and only need to be tried once:
+ * <ul>
+ * <li>a twist directly followed by its inverse, or three times the same twist
+ * in a row, is the same as a shorter sequence. No such sequence is part of an
+ * optimal solution, so these are never tried.</li>
+ * <li>twists on the same axis but of different rows commute. Of a run of
+ * twists on the same axis only the order with the rows ascending is tried,
+ * and counts for all orders of that run.</li>
+ * </ul>
+ *
+ * The search only reports the number of optimal solutions, and counts every
+ * order of the twists in a solution. This is done by giving each solution
+ * tried a weight: the product of the number of different orders of each run
+ * of same-axis twists, n! / 2^d for a run of n twists doing d rows twice.
+ *
+ * Which twists may follow each other is kept as states and transitions: a
+ * state is reached by a sequence of twists, and remembers the last twist, the
+ * length of the current run and the rows it twisted twice. Twists are
+ * numbered as in {@link MoveTable}. Tables are shared by all threads and all
+ * cubes of the same size.
+ *
+ * {@link SequenceGenerator} finds many more sequences not worth trying, by
+ * twisting all sequences up to some length, and writes a larger table to a
+ * file. Such a table is used instead once loaded with {@link #load(String)}.
+ *
+ */
+public final class SequenceTable {
+
+    // state before any twist
+    public static final int START = 0;
+
+    // first int of a sequence table file
+    private static final int MAGIC = 0x53455154;
+
+    // tables for each cube size, built on first use
+    private static volatile SequenceTable[] tables = new SequenceTable[0];
+
+    private final int size;
+
+    private final int moves; // number of possible twists
+
+    /*
+     * for each state and twist, the state after the twist, or -1 if the twist
+     * is never tried in that state. At index state * moves + move.
+     */
+    final int[] next;
+
+    /*
+     * for each state and twist, the factor the weight of all solutions
+     * continuing with this twist is multiplied by: the weight of the run
+     * ended by the twist, or 1. 0 if the twist is never tried.
+     */
+    final int[] weights;
+
+    // for each state, the weight of a solution ending in this state
+    final int[] runWeights;
+
+    /*
+     * for each state and twist, the weight of a solution ending with this
+     * twist, 0 if the twist is never tried. Same as weights[state * moves +
+     * move] * runWeights[next[state * moves + move]].
+     */
+    final int[] leafWeights;
+
+    /*
+     * for each state, the axis of the run of twists it ends in, -1 before any
+     * twist. Only known for tables built from the rules above, null for
+     * loaded tables.
+     */
+    final int[] runAxes;
+
+    /**
+     * Returns the (shared) table for cubes of a given size.
+     *
+     * @param size
+     *            size of the cube
+     * @return the sequence table for this size
+     */
+    public static SequenceTable get(int size) {
+        SequenceTable[] current = tables;
+        if (size < current.length && current[size] != null) {
+            return current[size];
+        }
+        return create(size);
+    }
+
+    private static synchronized SequenceTable create(int size) {
+        SequenceTable[] current = tables;
+        if (size < current.length && current[size] != null) {
+            return current[size];
+        }
+
+        SequenceTable[] result = new SequenceTable[Math.max(current.length,
+                size + 1)];
+        System.arraycopy(current, 0, result, 0, current.length);
+        result[size] = build(size);
+        tables = result;
+
+        return result[size];
+    }
+
+    /**
+     * Loads a table written by {@link SequenceGenerator}, and uses it for
+     * cubes of its size from then on, instead of the table built from the
+     * rules above. Must be done before searching.
+     *
+     * @param fileName
+     *            file to load the table from
+     * @return the loaded table
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    public static synchronized SequenceTable load(String fileName)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(fileName)));
+        SequenceTable table;
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(fileName + " is not a sequence table");
+            }
+            int size = in.readInt();
+            int moves = in.readInt();
+            int states = in.readInt();
+            if (moves != MoveTable.get(size).getMoves()) {
+                throw new IOException("sequence table for " + moves
+                        + " twists, cubes of size " + size + " have "
+                        + MoveTable.get(size).getMoves());
+            }
+
+            int[] next = new int[states * moves];
+            int[] weights = new int[next.length];
+            int[] runWeights = new int[states];
+            read(in, next);
+            read(in, weights);
+            read(in, runWeights);
+            table = new SequenceTable(size, next, weights, runWeights);
+        } finally {
+            in.close();
+        }
+
+        SequenceTable[] current = tables;
+        SequenceTable[] result = new SequenceTable[Math.max(current.length,
+                table.size + 1)];
+        System.arraycopy(current, 0, result, 0, current.length);
+        result[table.size] = table;
+        tables = result;
+
+        return table;
+    }
+
+    SequenceTable(int size, int[] next, int[] weights,
+            int[] runWeights) {
+        this(size, next, weights, runWeights, null);
+    }
+
+    private SequenceTable(int size, int[] next, int[] weights,
+            int[] runWeights, int[] runAxes) {
+        this.size = size;
+        this.moves = MoveTable.get(size).getMoves();
+        this.next = next;
+        this.weights = weights;
+        this.runWeights = runWeights;
+        this.runAxes = runAxes;
+
+        leafWeights = new int[next.length];
+        for (int i = 0; i < next.length; i++) {
+            if (next[i] >= 0) {
+                long weight = (long) weights[i] * runWeights[next[i]];
+                if (weight > Integer.MAX_VALUE) {
+                    throw new Error("weight of twist " + i % moves
+                            + " of state " + i / moves
+                            + " does not fit in an int");
+                }
+                leafWeights[i] = (int) weight;
+            }
+        }
+    }
+
+    /**
+     * Builds the table following the rules above.
+     */
+    private static SequenceTable build(int size) {
+        int moves = MoveTable.get(size).getMoves();
+        int rows = size - 1;
+
+        // states as {last twist, run length, rows twisted twice, 1 if the
+        // last twist was the second of a row}, numbered in order of discovery
+        List<int[]> states = new ArrayList<int[]>();
+        Map<Integer, Integer> numbers = new HashMap<Integer, Integer>();
+        state(-1, 0, 0, 0, rows, states, numbers);
+
+        List<Integer> transitions = new ArrayList<Integer>();
+        for (int state = 0; state < states.size(); state++) {
+            int[] from = states.get(state);
+            for (int move = 0; move < moves; move++) {
+                transitions.add(transition(from, move, rows, states, numbers));
+            }
+        }
+
+        int[] next = new int[transitions.size()];
+        int[] weights = new int[next.length];
+        int[] runWeights = new int[states.size()];
+        int[] runAxes = new int[states.size()];
+
+        for (int state = 0; state < runWeights.length; state++) {
+            int[] from = states.get(state);
+            runWeights[state] = runWeight(from[1], from[2]);
+            runAxes[state] = from[0] < 0 ? -1 : axis(from[0], rows);
+        }
+
+        for (int state = 0; state < runWeights.length; state++) {
+            int[] from = states.get(state);
+            for (int move = 0; move < moves; move++) {
+                int index = state * moves + move;
+                next[index] = transitions.get(index);
+                if (next[index] < 0) {
+                    continue;
+                }
+
+                if (from[0] >= 0 && axis(from[0], rows) != axis(move, rows)) {
+                    weights[index] = runWeights[state];
+                } else {
+                    weights[index] = 1;
+                }
+            }
+        }
+
+        return new SequenceTable(size, next, weights, runWeights, runAxes);
+    }
+
+    /**
+     * Returns the size of the cubes this table is for.
+     *
+     * @return the size of the cubes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of possible twists.
+     *
+     * @return the number of possible twists
+     */
+    public int getMoves() {
+        return moves;
+    }
+
+    /**
+     * Returns the number of states.
+     *
+     * @return the number of states
+     */
+    public int getStates() {
+        return runWeights.length;
+    }
+
+    /**
+     * Returns the state after a twist.
+     *
+     * @param state
+     *            state before the twist
+     * @param move
+     *            number of the twist
+     * @return the state after the twist, or -1 if this twist is never tried
+     *         in this state
+     */
+    public int next(int state, int move) {
+        return next[state * moves + move];
+    }
+
+    /**
+     * Returns the factor the weight of the solutions continuing with a twist
+     * is multiplied by.
+     *
+     * @param state
+     *            state before the twist
+     * @param move
+     *            number of the twist
+     * @return the factor, 0 if this twist is never tried in this state
+     */
+    public int weight(int state, int move) {
+        return weights[state * moves + move];
+    }
+
+    /**
+     * Returns the weighted number of solutions among the children of a cube.
+     * Only for sizes with at most 32 twists.
+     *
+     * @param state
+     *            state of the cube
+     * @param solvingMoves
+     *            a bit set for each twist solving the cube
+     * @return the sum of the weights of the twists solving the cube, twists
+     *         never tried in this state have weight 0
+     */
+    public int leafSolutions(int state, int solvingMoves) {
+        int result = 0;
+        int base = state * moves;
+
+        while (solvingMoves != 0) {
+            result += leafWeights[base
+                    + Integer.numberOfTrailingZeros(solvingMoves)];
+            solvingMoves &= solvingMoves - 1;
+        }
+        return result;
+    }
+
+    /**
+     * Writes this table to a file, to be loaded with {@link #load(String)}.
+     *
+     * @param fileName
+     *            file to write to
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public void write(String fileName) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(fileName)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(size);
+            out.writeInt(moves);
+            out.writeInt(runWeights.length);
+            write(out, next);
+            write(out, weights);
+            write(out, runWeights);
+        } finally {
+            out.close();
+        }
+    }
+
+    // *** Only private functions ahead. ***\\
+
+    private static void read(DataInputStream in, int[] values)
+            throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+    }
+
+    private static void write(DataOutputStream out, int[] values)
+            throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            out.writeInt(values[i]);
+        }
+    }
+
+    private static int axis(int move, int rows) {
+        return move / (2 * rows);
+    }
+
+    /**
+     * Computes the state after a twist, adding it to the states if new.
+     */
+    private static int transition(int[] from, int move, int rows,
+            List<int[]> states, Map<Integer, Integer> numbers) {
+        int last = from[0];
+
+        if (last < 0 || axis(last, rows) != axis(move, rows)) {
+            // starts a new run
+            return state(move, 1, 0, 0, rows, states, numbers);
+        }
+
+        if ((move >> 1) > (last >> 1)) {
+            // a higher row on the same axis
+            return state(move, from[1] + 1, from[2], 0, rows, states,
+                    numbers);
+        }
+
+        if (move == last && from[3] == 0) {
+            // same row, same direction, for the second time
+            return state(move, from[1] + 1, from[2] + 1, 1, rows, states,
+                    numbers);
+        }
+
+        // lower row, the inverse twist, or a row for the third time
+        return -1;
+    }
+
+    private static int state(int last, int length, int doubled, int second,
+            int rows, List<int[]> states, Map<Integer, Integer> numbers) {
+        int key = (((last + 1) * (2 * rows + 1) + length) * (rows + 1) + doubled)
+                * 2 + second;
+
+        Integer number = numbers.get(key);
+        if (number == null) {
+            number = states.size();
+            states.add(new int[] { last, length, doubled, second });
+            numbers.put(key, number);
+        }
+        return number;
+    }
+
+    /**
+     * Number of orders of a run of twists of different rows, doubled of which
+     * twist their row twice: length! / 2^doubled. Computed in a long, as
+     * 13! does not fit in an int. At most half the twists of a run are
+     * doubled, so the result of a run whose length! does not fit in a long
+     * does not fit in an int either.
+     */
+    private static int runWeight(int length, int doubled) {
+        long result = 1;
+        boolean fits = true;
+        for (int i = 2; i <= length && fits; i++) {
+            fits = result <= Long.MAX_VALUE / i;
+            result *= i;
+        }
+        result >>= doubled;
+        if (!fits || result > Integer.MAX_VALUE) {
+            throw new Error("orders of a run of " + length
+                    + " twists do not fit in an int");
+        }
+        return (int) result;
+    }
+}
@@ -0,0 +1,49 @@
+package rubiks.sequential;
+
+/**
+ * Twists specialized for one cube size. Implementations are generated at
+ * runtime by {@link KernelGenerator}, with straight-line code for every twist
+ * of a {@link MoveTable}: no loops, and every element index a constant.
+ *
+ * A kernel does the same as the loops over the cycles and rings of the move
+ * table in {@link Cube}, it is just faster.
+ *
+ */
+public abstract class TwistKernel {
+
+    /**
+     * Twist the elements of a cube in place, update its fingerprint, and
+     * compute the change in the number of misplaced elements of the cube.
+     *
+     * @param move
+     *            number of the twist
+     * @param data
+     *            elements of the cube to twist
+     * @param misplacedColors
+     *            1 if an element of color c on side s is misplaced, 0 if not,
+     *            at index s * SIDES + c
+     * @param keys
+     *            keys of the elements, see {@link MoveTable}
+     * @param fingerprint
+     *            array holding the fingerprint of the cube, updated in place
+     * @return the change in misplaced elements
+     */
+    public abstract int twist(int move, byte[] data, int[] misplacedColors,
+            long[] keys, long[] fingerprint);
+
+    /**
+     * Generates the kernel for the twists of a move table, if possible.
+     *
+     * @param moves
+     *            twists to generate code for
+     * @return the kernel, or null if no kernel could be generated
+     */
+    static TwistKernel create(MoveTable moves) {
+        try {
+            return KernelGenerator.generate(moves);
+        } catch (LinkageError e) {
+            // code generation library not available, use the loops
+            return null;
+        }
+    }
+}
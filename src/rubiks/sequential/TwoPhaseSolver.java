@@ -0,0 +1,289 @@
+package rubiks.sequential;
+
+/**
+ * Finds a short solution of a cube of size 3 quickly, instead of counting all
+ * optimal ones as {@link Rubiks} does by default (option --mode fast). Uses
+ * the two phase algorithm: phase 1 brings the cube into a group in which it
+ * can be solved with quarter turns of the top and bottom side and half turns
+ * of the others, phase 2 solves it within that group, see
+ * {@link TwoPhaseTable}. Each phase is a depth first search with increasing
+ * bounds (IDA*), skipping cubes which need more twists than are left
+ * according to the pruning tables.
+ *
+ * A solution of phase 1 of a given length is completed by the shortest
+ * solution of phase 2 found for it. Phase 1 solutions are tried in order of
+ * length, and phase 2 only searches for solutions shorter than the best one
+ * found so far. So the solutions found get shorter and shorter: each is
+ * printed when found, until the time is up or phase 1 alone would need as
+ * many twists as the best solution, which is then optimal.
+ *
+ * Twists which cannot be part of a shortest solution are skipped: a twist
+ * undoing the last one, three equal twists in a row, and twists of the same
+ * axis in any other order than by increasing row.
+ *
+ */
+public final class TwoPhaseSolver {
+
+    // longest solution searched for
+    private static final int MAX_LENGTH = 50;
+
+    // twists tried between looks at the clock
+    private static final int CHECK_INTERVAL = 1 << 12;
+
+    private final TwoPhaseTable table;
+
+    private final MoveTable moves;
+
+    // milliseconds to look for shorter solutions after the first one
+    private final long time;
+
+    // twists of the solution being searched, phase 1 first
+    private final int[] path = new int[MAX_LENGTH];
+
+    private final int[] best = new int[MAX_LENGTH];
+
+    private int bestLength = MAX_LENGTH + 1;
+
+    // cube being solved
+    private Cube cube;
+
+    private TwoPhaseTable.Pieces pieces;
+
+    private long start;
+
+    private long firstFound; // time the first solution was found
+
+    private int nodes;
+
+    private boolean expired;
+
+    /**
+     * Creates a solver, building its tables first unless they are loaded (see
+     * {@link TwoPhaseTable#load(String)}).
+     *
+     * @param time
+     *            milliseconds to look for shorter solutions after the first
+     *            one is found. The first solution is always waited for, and
+     *            building the tables does not count.
+     */
+    public TwoPhaseSolver(long time) {
+        table = TwoPhaseTable.get();
+        moves = MoveTable.get(TwoPhaseTable.SIZE);
+        this.time = time;
+    }
+
+    /**
+     * Looks for ever shorter solutions of a cube, printing each one found.
+     *
+     * @param cube
+     *            cube of size 3 to solve, unchanged when this function
+     *            returns
+     * @return the number of twists of the shortest solution found
+     */
+    public int solve(Cube cube) {
+        this.cube = new Cube(cube);
+        pieces = table.read(cube);
+        bestLength = MAX_LENGTH + 1;
+        start = System.currentTimeMillis();
+        nodes = 0;
+        expired = false;
+
+        int twist = TwoPhaseTable.twist(pieces);
+        int flip = TwoPhaseTable.flip(pieces);
+        int slice = TwoPhaseTable.slice(pieces);
+        for (int depth = phase1Estimate(twist, flip, slice); depth < bestLength
+                && !expired; depth++) {
+            phase1(twist, flip, slice, 0, depth);
+        }
+
+        if (!expired) {
+            System.out.println("No solution of fewer steps exists");
+        }
+        return bestLength;
+    }
+
+    // *** Only private functions ahead. ***\\
+
+    private int phase1Estimate(int twist, int flip, int slice) {
+        return Math.max(
+                table.twistSliceDistances[twist * TwoPhaseTable.SLICES + slice] & 0xff,
+                table.flipSliceDistances[flip * TwoPhaseTable.SLICES + slice] & 0xff);
+    }
+
+    private int phase2Estimate(int corners, int edges, int slice) {
+        return Math.max(table.cornerSliceDistances[corners
+                * TwoPhaseTable.SLICE_PERMUTATIONS + slice] & 0xff,
+                table.edgeSliceDistances[edges
+                        * TwoPhaseTable.SLICE_PERMUTATIONS + slice] & 0xff);
+    }
+
+    /**
+     * Tries all phase 1 solutions of exactly the twists left, starting with
+     * the twists in the path up to depth.
+     */
+    private void phase1(int twist, int flip, int slice, int depth, int left) {
+        if (left == 0) {
+            // a last twist of the top or bottom side starts in the group
+            // already, that phase 1 solution was tried with one twist less
+            if (twist == 0 && flip == 0 && slice == table.solvedSlice
+                    && (depth == 0 || TwoPhaseTable.axis(path[depth - 1]) != table.phase2Axis)) {
+                phase2(depth);
+            }
+            return;
+        }
+
+        for (int move = 0; move < TwoPhaseTable.MOVES && !expired; move++) {
+            if (skip(path, depth, move)) {
+                continue;
+            }
+            int nextTwist = table.twistMoves[twist * TwoPhaseTable.MOVES + move];
+            int nextFlip = table.flipMoves[flip * TwoPhaseTable.MOVES + move];
+            int nextSlice = table.sliceMoves[slice * TwoPhaseTable.MOVES
+                    + move];
+            if (phase1Estimate(nextTwist, nextFlip, nextSlice) >= left) {
+                continue;
+            }
+            path[depth] = move;
+            tick();
+            phase1(nextTwist, nextFlip, nextSlice, depth + 1, left - 1);
+        }
+    }
+
+    /**
+     * Searches the shortest phase 2 solution after the phase 1 solution in the
+     * path, which is shorter than the best solution so far.
+     */
+    private void phase2(int length) {
+        TwoPhaseTable.Pieces reached = pieces;
+        for (int i = 0; i < length; i++) {
+            reached = table.twist(reached, path[i]);
+        }
+        int corners = TwoPhaseTable.cornerPermutation(reached);
+        int edges = TwoPhaseTable.edgePermutation(reached);
+        int slice = TwoPhaseTable.slicePermutation(reached);
+
+        for (int left = phase2Estimate(corners, edges, slice); length + left < bestLength
+                && !expired; left++) {
+            if (phase2(corners, edges, slice, length, length, left)) {
+                found(length + left);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Looks for a phase 2 solution of exactly the twists left, after the
+     * twists in the path up to depth. Phase 2 started at start.
+     */
+    private boolean phase2(int corners, int edges, int slice, int start,
+            int depth, int left) {
+        if (left == 0) {
+            return corners == 0 && edges == 0 && slice == 0;
+        }
+
+        for (int move = 0; move < TwoPhaseTable.PHASE2_MOVES && !expired; move++) {
+            int twist = table.phase2Twists[move];
+            int cost = table.phase2Costs[move];
+            if (cost > left || (depth > start && skip(path, depth, twist))) {
+                continue;
+            }
+            int nextCorners = table.cornerPermutationMoves[corners
+                    * TwoPhaseTable.PHASE2_MOVES + move];
+            int nextEdges = table.edgePermutationMoves[edges
+                    * TwoPhaseTable.PHASE2_MOVES + move];
+            int nextSlice = table.slicePermutationMoves[slice
+                    * TwoPhaseTable.PHASE2_MOVES + move];
+            if (phase2Estimate(nextCorners, nextEdges, nextSlice) > left - cost) {
+                continue;
+            }
+            for (int i = 0; i < cost; i++) {
+                path[depth + i] = twist;
+            }
+            tick();
+            if (phase2(nextCorners, nextEdges, nextSlice, start, depth + cost,
+                    left - cost)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns if a twist after the twists in the path up to depth is not
+     * worth trying.
+     */
+    private static boolean skip(int[] path, int depth, int move) {
+        if (depth == 0) {
+            return false;
+        }
+        int last = path[depth - 1];
+        if (move == (last ^ 1)) {
+            return true; // undoes the last twist
+        }
+        if (move == last && depth >= 2 && path[depth - 2] == move) {
+            return true; // the inverse does the same in one twist
+        }
+        // twists of the same axis do not change each other's result
+        return move != last
+                && TwoPhaseTable.axis(move) == TwoPhaseTable.axis(last)
+                && move < last;
+    }
+
+    private void tick() {
+        nodes++;
+        if (nodes % CHECK_INTERVAL == 0 && bestLength <= MAX_LENGTH
+                && System.currentTimeMillis() - firstFound >= time) {
+            expired = true;
+        }
+    }
+
+    /**
+     * Records the solution in the path, and prints it in twists of the cube
+     * as it is, centers included.
+     */
+    private void found(int length) {
+        if (bestLength > MAX_LENGTH) {
+            firstFound = System.currentTimeMillis();
+        }
+        bestLength = length;
+        System.arraycopy(path, 0, best, 0, length);
+
+        StringBuilder twists = new StringBuilder();
+        Cube work = new Cube(cube);
+        TwoPhaseTable.Pieces current = table.read(work);
+        for (int i = 0; i < length; i++) {
+            // find the twist turning the side the solution turns, wherever
+            // its center is now
+            TwoPhaseTable.Pieces target = table.twist(current, best[i]);
+            int move = 0;
+            for (; move < TwoPhaseTable.MOVES; move++) {
+                work.apply(moves, move);
+                if (table.read(work).equals(target)) {
+                    break;
+                }
+                work.undo(moves, move);
+            }
+            if (move == TwoPhaseTable.MOVES) {
+                throw new Error("no twist turns the side of twist " + best[i]);
+            }
+            current = target;
+            twists.append(' ').append(name(move));
+        }
+        if (!work.isSolved()) {
+            throw new Error("solution found does not solve the cube");
+        }
+
+        System.out.println("Solution of " + length + " steps:" + twists);
+        System.err.println("Found after "
+                + (System.currentTimeMillis() - start) + " milliseconds");
+    }
+
+    /**
+     * Returns the name of a twist: its axis, first row and direction.
+     */
+    private static String name(int move) {
+        int rows = TwoPhaseTable.SIZE - 1;
+        return Cube.Axis.values()[move / (2 * rows)].name()
+                + (move / 2 % rows + 1) + (move % 2 == 0 ? "+" : "-");
+    }
+}
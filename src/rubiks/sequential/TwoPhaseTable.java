@@ -0,0 +1,838 @@
+package rubiks.sequential;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Tables of the two phase solver for cubes of size 3, see
+ * {@link TwoPhaseSolver}.
+ *
+ * The solver looks at the pieces relative to the centers, as if the cube was
+ * turned as a whole until its centers are back in place. Seen like that,
+ * every twist turns a single side by a quarter: a twist of the last row turns
+ * that side, and a twist of the last two rows turns the first side the other
+ * way (and the cube as a whole, which does not count). Sides are named after
+ * their center, and a twist after the twist which turns that side in the same
+ * direction when the centers are in place. So the solver works with the usual
+ * corners and edges, and twists counted as quarter turns, as {@link Rubiks}
+ * counts them.
+ *
+ * A corner is oriented by the element its top or bottom color is on, counted
+ * from the element of its position on the top or bottom side, round the corner
+ * the same way for every position. An edge is flipped if its top or bottom
+ * color (or, for the four edges without one, its front or back color) is not
+ * on the top or bottom side of its position (or front or back side for the
+ * four positions without one). Twists of the top and bottom sides keep corners
+ * and edges oriented, as do half turns of the other sides. These twists form
+ * the group of phase 2. The four edges without top or bottom color stay in
+ * the middle row of the y axis in this group.
+ *
+ * Phase 1 brings a cube into the group of phase 2. Its coordinates are the
+ * orientation of the corners (3^7), the flips of the edges (2^11), and the
+ * positions of the four middle edges (12 choose 4). Phase 2 solves the cube
+ * within the group. Its coordinates are the permutation of the corners (8!),
+ * of the other edges (8!), and of the middle edges (4!). For each coordinate
+ * and twist, a table holds the coordinate after the twist. For pairs of
+ * coordinates, a table holds the number of twists needed to solve them
+ * (pruning tables), found by a breadth first search from the solved cube.
+ *
+ * The effect of each twist on the pieces is found by twisting the solved
+ * cube, so twists have the same numbers as in {@link MoveTable}. There is
+ * only one table, shared by all threads. Building it takes over a second, so
+ * {@link PatternDatabaseGenerator} can write it to a file, to be loaded with
+ * the --pdb option of {@link Rubiks}.
+ *
+ */
+public final class TwoPhaseTable {
+
+    public static final int SIZE = 3; // only size this solver works for
+
+    static final int MOVES = 6 * (SIZE - 1);
+
+    static final int CORNERS = 8;
+
+    static final int EDGES = 12;
+
+    // edges in the middle row of the y axis, the last ones
+    static final int MIDDLE_EDGES = 4;
+
+    static final int TWISTS = 2187; // 3^7, last corner follows
+
+    static final int FLIPS = 2048; // 2^11, last edge follows
+
+    static final int SLICES = 495; // 12 choose 4
+
+    static final int CORNER_PERMUTATIONS = 40320; // 8!
+
+    static final int EDGE_PERMUTATIONS = 40320; // 8!
+
+    static final int SLICE_PERMUTATIONS = 24; // 4!
+
+    // twists of phase 2: quarter turns on the y axis, half turns otherwise
+    static final int PHASE2_MOVES = 8;
+
+    private static final int UNKNOWN = 0xff;
+
+    private static final int MAGIC = 0x54574f50;
+
+    // bytes of the move and pruning tables in the file, after the magic
+    private static final long LENGTH = 4L
+            * (TWISTS + FLIPS + SLICES) * MOVES + 4L
+            * (CORNER_PERMUTATIONS + EDGE_PERMUTATIONS + SLICE_PERMUTATIONS)
+            * PHASE2_MOVES + (long) (TWISTS + FLIPS) * SLICES
+            + (long) (CORNER_PERMUTATIONS + EDGE_PERMUTATIONS)
+            * SLICE_PERMUTATIONS;
+
+    private static TwoPhaseTable table;
+
+    private final ParityTable geometry;
+
+    // for each corner position, the sides of its elements in the order of its
+    // orientation, and the element on each side (-1 for others)
+    private final int[][] cornerSides = new int[CORNERS][];
+
+    private final int[][] cornerElements = new int[CORNERS][];
+
+    // corner position by the sides it is on (a bit for each side)
+    private final HashMap<Integer, Integer> cornerPositions = new HashMap<Integer, Integer>();
+
+    // the same for edges, the side deciding the flip first
+    private final int[][] edgeSides = new int[EDGES][];
+
+    private final int[][] edgeElements = new int[EDGES][];
+
+    private final HashMap<Integer, Integer> edgePositions = new HashMap<Integer, Integer>();
+
+    // each twist as the pieces of the solved cube after it
+    private final Pieces[] twists = new Pieces[MOVES];
+
+    // coordinate of the middle edges once solved
+    final int solvedSlice;
+
+    /*
+     * coordinate after each twist, at index coordinate * MOVES + move, or
+     * coordinate * PHASE2_MOVES + move for the coordinates of phase 2
+     */
+    final int[] twistMoves = new int[TWISTS * MOVES];
+
+    final int[] flipMoves = new int[FLIPS * MOVES];
+
+    final int[] sliceMoves = new int[SLICES * MOVES];
+
+    final int[] cornerPermutationMoves = new int[CORNER_PERMUTATIONS
+            * PHASE2_MOVES];
+
+    final int[] edgePermutationMoves = new int[EDGE_PERMUTATIONS
+            * PHASE2_MOVES];
+
+    final int[] slicePermutationMoves = new int[SLICE_PERMUTATIONS
+            * PHASE2_MOVES];
+
+    // axis of the twists of the top and bottom sides
+    final int phase2Axis;
+
+    // twist of each move of phase 2, and the number of times it is done
+    final int[] phase2Twists = new int[PHASE2_MOVES];
+
+    final int[] phase2Costs = new int[PHASE2_MOVES];
+
+    /*
+     * twists needed to solve pairs of coordinates, at index first * (states
+     * of second) + second
+     */
+    final byte[] twistSliceDistances = new byte[TWISTS * SLICES];
+
+    final byte[] flipSliceDistances = new byte[FLIPS * SLICES];
+
+    final byte[] cornerSliceDistances = new byte[CORNER_PERMUTATIONS
+            * SLICE_PERMUTATIONS];
+
+    final byte[] edgeSliceDistances = new byte[EDGE_PERMUTATIONS
+            * SLICE_PERMUTATIONS];
+
+    /**
+     * Returns the (shared) table, building it on first use.
+     *
+     * @return the two phase table
+     */
+    public static synchronized TwoPhaseTable get() {
+        if (table == null) {
+            table = new TwoPhaseTable(null);
+        }
+        return table;
+    }
+
+    /**
+     * Returns if a file holds two phase tables, rather than the databases of
+     * {@link PatternDatabase}.
+     *
+     * @param fileName
+     *            file to look at
+     * @return true if the file starts like a two phase table file
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    public static boolean isTwoPhaseTable(String fileName) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            return file.length() >= 4 && file.readInt() == MAGIC;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Loads tables written by {@link PatternDatabaseGenerator}, and uses them
+     * from then on instead of building them. Must be done before solving.
+     *
+     * @param fileName
+     *            file to load the tables from
+     * @return the loaded table
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    public static synchronized TwoPhaseTable load(String fileName)
+            throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            if (file.length() < 4 || file.readInt() != MAGIC) {
+                throw new IOException(fileName
+                        + " is not a two phase table file");
+            }
+            if (4 + LENGTH > file.length()) {
+                throw new IOException(fileName + " is too short");
+            }
+            table = new TwoPhaseTable(file.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 4, LENGTH));
+        } finally {
+            file.close();
+        }
+        return table;
+    }
+
+    /**
+     * Writes the move and pruning tables to a file, to be loaded with
+     * {@link #load(String)}.
+     *
+     * @param fileName
+     *            file to write to
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public void write(String fileName) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(fileName)));
+        try {
+            out.writeInt(MAGIC);
+            for (int[] moves : new int[][] { twistMoves, flipMoves,
+                    sliceMoves, cornerPermutationMoves, edgePermutationMoves,
+                    slicePermutationMoves }) {
+                for (int i = 0; i < moves.length; i++) {
+                    out.writeInt(moves[i]);
+                }
+            }
+            out.write(twistSliceDistances);
+            out.write(flipSliceDistances);
+            out.write(cornerSliceDistances);
+            out.write(edgeSliceDistances);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Describes the pieces and the twists, and fills the tables, or reads
+     * them if data is given.
+     */
+    private TwoPhaseTable(ByteBuffer data) {
+        geometry = ParityTable.get(SIZE);
+        int last = SIZE - 1;
+
+        // corners: the element on the top or bottom side first, then round
+        // the corner the same way for every position, as in PocketTable
+        for (int position = 0; position < CORNERS; position++) {
+            int[] order = Integer.bitCount(position) % 2 == 0 ? new int[] { 1,
+                    0, 2 } : new int[] { 1, 2, 0 };
+            int[] elements = geometry.cornerElements[position];
+            cornerSides[position] = new int[3];
+            cornerElements[position] = new int[Cube.SIDES];
+            Arrays.fill(cornerElements[position], -1);
+            for (int i = 0; i < 3; i++) {
+                int side = elements[order[i]] / (SIZE * SIZE);
+                cornerSides[position][i] = side;
+                cornerElements[position][side] = elements[order[i]];
+            }
+            cornerPositions.put(ParityTable.bits(cornerSides[position]),
+                    position);
+        }
+
+        // edges: those with a top or bottom side first, then the middle ones
+        int edges = 0;
+        for (int middle = 0; middle < 2; middle++) {
+            for (int x = 0; x <= last; x++) {
+                for (int y = 0; y <= last; y++) {
+                    for (int z = 0; z <= last; z++) {
+                        int centered = (x == 1 ? 1 : 0) + (y == 1 ? 1 : 0)
+                                + (z == 1 ? 1 : 0);
+                        if (centered != 1 || (y == 1) != (middle == 1)) {
+                            continue;
+                        }
+                        int xSide = x == 0 ? Cube.LEFT : Cube.RIGHT;
+                        int ySide = y == 0 ? Cube.TOP : Cube.BOTTOM;
+                        int zSide = z == 0 ? Cube.BACK : Cube.FRONT;
+                        int[] sides;
+                        if (y == 1) {
+                            sides = new int[] { zSide, xSide };
+                        } else if (x == 1) {
+                            sides = new int[] { ySide, zSide };
+                        } else {
+                            sides = new int[] { ySide, xSide };
+                        }
+                        edgeSides[edges] = sides;
+                        edgeElements[edges] = new int[Cube.SIDES];
+                        Arrays.fill(edgeElements[edges], -1);
+                        for (int side : sides) {
+                            edgeElements[edges][side] = geometry.element(side,
+                                    x, y, z);
+                        }
+                        edgePositions.put(ParityTable.bits(sides), edges);
+                        edges++;
+                    }
+                }
+            }
+        }
+
+        // each twist, from the solved cube
+        Cube solved = new Cube(SIZE).solved();
+        MoveTable moves = MoveTable.get(SIZE);
+        Pieces identity = read(solved);
+        for (int move = 0; move < MOVES; move++) {
+            solved.apply(moves, move);
+            twists[move] = read(solved);
+            solved.undo(moves, move);
+        }
+        for (int move = 0; move < MOVES; move++) {
+            Pieces undone = twists[move].twist(twists[move ^ 1]);
+            if (!undone.equals(identity)) {
+                throw new Error("twist " + move
+                        + " is not undone by its inverse");
+            }
+        }
+
+        boolean[] occupied = new boolean[EDGES];
+        Arrays.fill(occupied, EDGES - MIDDLE_EDGES, EDGES, true);
+        solvedSlice = slice(occupied);
+
+        if (data != null) {
+            read(data, twistMoves);
+            read(data, flipMoves);
+            read(data, sliceMoves);
+        } else {
+            fillPhase1Moves();
+        }
+
+        // moves of phase 2: twists of the axis which keeps the cube in the
+        // group, the top and bottom sides, and the others done twice
+        int axis = -1;
+        for (int move = 0; move < MOVES; move++) {
+            if (twistMoves[move] == 0 && flipMoves[move] == 0
+                    && sliceMoves[solvedSlice * MOVES + move] == solvedSlice) {
+                axis = axis(move);
+            }
+        }
+        if (axis < 0) {
+            throw new Error("no twists turn the top and bottom sides");
+        }
+        phase2Axis = axis;
+        int count = 0;
+        for (int move = 0; move < MOVES; move++) {
+            if (axis(move) == phase2Axis) {
+                phase2Twists[count] = move;
+                phase2Costs[count++] = 1;
+            } else if (move % 2 == 0) {
+                phase2Twists[count] = move;
+                phase2Costs[count++] = 2;
+            }
+        }
+        if (data != null) {
+            read(data, cornerPermutationMoves);
+            read(data, edgePermutationMoves);
+            read(data, slicePermutationMoves);
+            data.get(twistSliceDistances);
+            data.get(flipSliceDistances);
+            data.get(cornerSliceDistances);
+            data.get(edgeSliceDistances);
+        } else {
+            fillPhase2Moves();
+
+            fillDistances(twistSliceDistances, twistMoves, sliceMoves, SLICES,
+                    MOVES, null, solvedSlice);
+            fillDistances(flipSliceDistances, flipMoves, sliceMoves, SLICES,
+                    MOVES, null, solvedSlice);
+            fillDistances(cornerSliceDistances, cornerPermutationMoves,
+                    slicePermutationMoves, SLICE_PERMUTATIONS, PHASE2_MOVES,
+                    phase2Costs, 0);
+            fillDistances(edgeSliceDistances, edgePermutationMoves,
+                    slicePermutationMoves, SLICE_PERMUTATIONS, PHASE2_MOVES,
+                    phase2Costs, 0);
+        }
+    }
+
+    /**
+     * Returns the axis a twist turns around.
+     *
+     * @param move
+     *            number of the twist
+     * @return the ordinal of its axis
+     */
+    static int axis(int move) {
+        return move / (2 * (SIZE - 1));
+    }
+
+    /**
+     * Reads the pieces of a cube, relative to its centers.
+     *
+     * @param cube
+     *            cube of size 3
+     * @return the pieces of the cube
+     */
+    Pieces read(Cube cube) {
+        if (cube.getSize() != SIZE) {
+            throw new Error("two phase solver used for cube of size "
+                    + cube.getSize());
+        }
+        byte[] homeSide = geometry.homeSides(cube);
+
+        // side each center is on, by the side it belongs on
+        int[] sideOf = new int[Cube.SIDES];
+        for (int side = 0; side < Cube.SIDES; side++) {
+            int center = side * SIZE * SIZE + SIZE * SIZE / 2;
+            sideOf[homeSide[cube.getColor(center)]] = side;
+        }
+
+        Pieces result = new Pieces();
+        int[] sides = new int[3];
+        int[] homes = new int[3];
+        for (int position = 0; position < CORNERS; position++) {
+            for (int i = 0; i < 3; i++) {
+                sides[i] = sideOf[cornerSides[position][i]];
+            }
+            Integer at = cornerPositions.get(ParityTable.bits(sides));
+            for (int i = 0; i < 3; i++) {
+                homes[i] = homeSide[cube.getColor(cornerElements[at][sides[i]])];
+            }
+            Integer corner = cornerPositions.get(ParityTable.bits(homes));
+            if (corner == null) {
+                throw new Error("cube contains a corner that does not exist");
+            }
+            result.corners[position] = corner;
+            for (int i = 0; i < 3; i++) {
+                if (homes[i] == cornerSides[corner][0]) {
+                    result.cornerTurns[position] = i;
+                }
+            }
+        }
+
+        sides = new int[2];
+        homes = new int[2];
+        for (int position = 0; position < EDGES; position++) {
+            for (int i = 0; i < 2; i++) {
+                sides[i] = sideOf[edgeSides[position][i]];
+            }
+            Integer at = edgePositions.get(ParityTable.bits(sides));
+            for (int i = 0; i < 2; i++) {
+                homes[i] = homeSide[cube.getColor(edgeElements[at][sides[i]])];
+            }
+            Integer edge = edgePositions.get(ParityTable.bits(homes));
+            if (edge == null) {
+                throw new Error("cube contains an edge that does not exist");
+            }
+            result.edges[position] = edge;
+            result.edgeFlips[position] = homes[0] == edgeSides[edge][0] ? 0 : 1;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the pieces of a cube after a twist, relative to its centers.
+     *
+     * @param pieces
+     *            pieces of the cube
+     * @param move
+     *            number of the twist, as if the centers are in place
+     * @return the pieces after the twist
+     */
+    Pieces twist(Pieces pieces, int move) {
+        return pieces.twist(twists[move]);
+    }
+
+    /**
+     * Returns the orientation of the corners of a cube.
+     */
+    static int twist(Pieces pieces) {
+        int result = 0;
+        for (int i = CORNERS - 2; i >= 0; i--) {
+            result = result * 3 + pieces.cornerTurns[i];
+        }
+        return result;
+    }
+
+    /**
+     * Returns the flips of the edges of a cube.
+     */
+    static int flip(Pieces pieces) {
+        int result = 0;
+        for (int i = EDGES - 2; i >= 0; i--) {
+            result = result * 2 + pieces.edgeFlips[i];
+        }
+        return result;
+    }
+
+    /**
+     * Returns the positions of the middle edges of a cube.
+     */
+    static int slice(Pieces pieces) {
+        boolean[] occupied = new boolean[EDGES];
+        for (int i = 0; i < EDGES; i++) {
+            occupied[i] = pieces.edges[i] >= EDGES - MIDDLE_EDGES;
+        }
+        return slice(occupied);
+    }
+
+    /**
+     * Returns the permutation of the corners of a cube.
+     */
+    static int cornerPermutation(Pieces pieces) {
+        return rank(pieces.corners, 0, CORNERS);
+    }
+
+    /**
+     * Returns the permutation of the edges with a top or bottom color of a
+     * cube in the group of phase 2.
+     */
+    static int edgePermutation(Pieces pieces) {
+        return rank(pieces.edges, 0, EDGES - MIDDLE_EDGES);
+    }
+
+    /**
+     * Returns the permutation of the middle edges of a cube in the group of
+     * phase 2.
+     */
+    static int slicePermutation(Pieces pieces) {
+        return rank(pieces.edges, EDGES - MIDDLE_EDGES, MIDDLE_EDGES);
+    }
+
+    // *** Only private functions ahead. ***\\
+
+    // reads the next table of a file, leaving the data after it
+    private static void read(ByteBuffer data, int[] values) {
+        data.asIntBuffer().get(values);
+        data.position(data.position() + 4 * values.length);
+    }
+
+    private void fillPhase1Moves() {
+        Pieces pieces = new Pieces();
+        for (int twist = 0; twist < TWISTS; twist++) {
+            int total = 0;
+            for (int i = 0; i < CORNERS - 1; i++) {
+                pieces.cornerTurns[i] = twist / power(3, i) % 3;
+                total += pieces.cornerTurns[i];
+            }
+            pieces.cornerTurns[CORNERS - 1] = (3 - total % 3) % 3;
+            for (int move = 0; move < MOVES; move++) {
+                twistMoves[twist * MOVES + move] = twist(twist(pieces, move));
+            }
+        }
+
+        pieces = new Pieces();
+        for (int flip = 0; flip < FLIPS; flip++) {
+            int total = 0;
+            for (int i = 0; i < EDGES - 1; i++) {
+                pieces.edgeFlips[i] = flip >> i & 1;
+                total += pieces.edgeFlips[i];
+            }
+            pieces.edgeFlips[EDGES - 1] = total & 1;
+            for (int move = 0; move < MOVES; move++) {
+                flipMoves[flip * MOVES + move] = flip(twist(pieces, move));
+            }
+        }
+
+        boolean[] occupied = new boolean[EDGES];
+        boolean[] moved = new boolean[EDGES];
+        for (int slice = 0; slice < SLICES; slice++) {
+            occupied(slice, occupied);
+            for (int move = 0; move < MOVES; move++) {
+                for (int i = 0; i < EDGES; i++) {
+                    moved[i] = occupied[twists[move].edges[i]];
+                }
+                sliceMoves[slice * MOVES + move] = slice(moved);
+            }
+        }
+
+        // the orientations a coordinate leaves out must follow from the others
+        for (int move = 0; move < MOVES; move++) {
+            int turns = 0;
+            for (int turn : twists[move].cornerTurns) {
+                turns += turn;
+            }
+            int flips = 0;
+            for (int flip : twists[move].edgeFlips) {
+                flips += flip;
+            }
+            if (turns % 3 != 0 || flips % 2 != 0) {
+                throw new Error("twist " + move
+                        + " changes the sum of the orientations");
+            }
+        }
+    }
+
+    private void fillPhase2Moves() {
+        int middle = EDGES - MIDDLE_EDGES;
+        int[] permutation = new int[CORNERS];
+        int[] result = new int[CORNERS];
+        for (int move = 0; move < PHASE2_MOVES; move++) {
+            // pieces moved by the move, the twist done once or twice
+            Pieces moved = twists[phase2Twists[move]];
+            if (phase2Costs[move] == 2) {
+                moved = moved.twist(moved);
+            }
+            for (int i = 0; i < EDGES; i++) {
+                if ((i < middle) != (moved.edges[i] < middle)) {
+                    throw new Error("move " + move
+                            + " of phase 2 moves middle edges out");
+                }
+            }
+
+            for (int state = 0; state < CORNER_PERMUTATIONS; state++) {
+                permutation(state, permutation, CORNERS);
+                for (int i = 0; i < CORNERS; i++) {
+                    result[i] = permutation[moved.corners[i]];
+                }
+                cornerPermutationMoves[state * PHASE2_MOVES + move] = rank(
+                        result, 0, CORNERS);
+            }
+            for (int state = 0; state < EDGE_PERMUTATIONS; state++) {
+                permutation(state, permutation, middle);
+                for (int i = 0; i < middle; i++) {
+                    result[i] = permutation[moved.edges[i]];
+                }
+                edgePermutationMoves[state * PHASE2_MOVES + move] = rank(
+                        result, 0, middle);
+            }
+            for (int state = 0; state < SLICE_PERMUTATIONS; state++) {
+                permutation(state, permutation, MIDDLE_EDGES);
+                for (int i = 0; i < MIDDLE_EDGES; i++) {
+                    result[i] = permutation[moved.edges[middle + i] - middle];
+                }
+                slicePermutationMoves[state * PHASE2_MOVES + move] = rank(
+                        result, 0, MIDDLE_EDGES);
+            }
+        }
+    }
+
+    /**
+     * Finds the twists needed to solve each pair of coordinates, with a
+     * breadth first search from the solved pair. Moves done more than once
+     * count as often as they are done. Levels are expanded in order, so every
+     * pair gets its smallest distance.
+     */
+    private static void fillDistances(byte[] distances, int[] firstMoves,
+            int[] secondMoves, int secondStates, int moves, int[] costs,
+            int solved) {
+        Arrays.fill(distances, (byte) UNKNOWN);
+        distances[solved] = 0;
+
+        int left = distances.length - 1;
+        for (int depth = 0; left > 0; depth++) {
+            boolean more = false;
+            for (int index = 0; index < distances.length; index++) {
+                int distance = distances[index] & 0xff;
+                if (distance == UNKNOWN || distance < depth) {
+                    continue;
+                }
+                more = true;
+                if (distance > depth) {
+                    continue;
+                }
+                int first = index / secondStates;
+                int second = index % secondStates;
+                for (int move = 0; move < moves; move++) {
+                    int neighbour = firstMoves[first * moves + move]
+                            * secondStates + secondMoves[second * moves + move];
+                    int reached = depth + (costs == null ? 1 : costs[move]);
+                    int known = distances[neighbour] & 0xff;
+                    if (known == UNKNOWN) {
+                        left--;
+                    }
+                    if (reached < known) {
+                        distances[neighbour] = (byte) reached;
+                    }
+                }
+            }
+            if (!more) {
+                break; // the rest cannot be reached
+            }
+        }
+    }
+
+    private static int power(int base, int exponent) {
+        int result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= base;
+        }
+        return result;
+    }
+
+    private static int choose(int n, int k) {
+        if (k > n) {
+            return 0;
+        }
+        int result = 1;
+        for (int i = 0; i < k; i++) {
+            result = result * (n - i) / (i + 1);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the rank of a set of four edge positions, among all such sets.
+     */
+    private static int slice(boolean[] occupied) {
+        int result = 0;
+        int found = 0;
+        for (int i = 0; i < EDGES; i++) {
+            if (occupied[i]) {
+                found++;
+                result += choose(i, found);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the set of edge positions of a rank, see {@link #slice(boolean[])}.
+     */
+    private static void occupied(int rank, boolean[] occupied) {
+        Arrays.fill(occupied, false);
+        int position = EDGES - 1;
+        for (int found = MIDDLE_EDGES; found > 0; found--) {
+            while (choose(position, found) > rank) {
+                position--;
+            }
+            occupied[position] = true;
+            rank -= choose(position, found);
+            position--;
+        }
+    }
+
+    /**
+     * Returns the rank of a permutation of a number of pieces starting at an
+     * offset, among all permutations in lexicographic order.
+     */
+    private static int rank(int[] pieces, int offset, int count) {
+        int result = 0;
+        for (int i = 0; i < count; i++) {
+            int smaller = 0;
+            for (int j = i + 1; j < count; j++) {
+                if (pieces[offset + j] < pieces[offset + i]) {
+                    smaller++;
+                }
+            }
+            result = result * (count - i) + smaller;
+        }
+        return result;
+    }
+
+    /**
+     * Finds the permutation of a rank, see {@link #rank(int[], int, int)}.
+     */
+    private static void permutation(int rank, int[] permutation, int count) {
+        int[] digits = new int[count];
+        for (int i = count - 1; i >= 0; i--) {
+            digits[i] = rank % (count - i);
+            rank /= count - i;
+        }
+        boolean[] used = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            int piece = 0;
+            for (int skip = digits[i];; piece++) {
+                if (!used[piece]) {
+                    if (skip == 0) {
+                        break;
+                    }
+                    skip--;
+                }
+            }
+            used[piece] = true;
+            permutation[i] = piece;
+        }
+    }
+
+    /**
+     * Corners and edges of a cube relative to its centers: the piece at each
+     * position, and how far it is turned.
+     */
+    static final class Pieces {
+
+        final int[] corners = new int[CORNERS];
+
+        final int[] cornerTurns = new int[CORNERS];
+
+        final int[] edges = new int[EDGES];
+
+        final int[] edgeFlips = new int[EDGES];
+
+        Pieces() {
+            for (int i = 0; i < CORNERS; i++) {
+                corners[i] = i;
+            }
+            for (int i = 0; i < EDGES; i++) {
+                edges[i] = i;
+            }
+        }
+
+        /**
+         * Returns these pieces after a twist, given as the pieces of the
+         * solved cube after it: a position gets the piece of the position the
+         * twist takes its piece from, turned as much as the twist turns it.
+         */
+        Pieces twist(Pieces twist) {
+            Pieces result = new Pieces();
+            for (int i = 0; i < CORNERS; i++) {
+                int from = twist.corners[i];
+                result.corners[i] = corners[from];
+                result.cornerTurns[i] = (cornerTurns[from] + twist.cornerTurns[i]) % 3;
+            }
+            for (int i = 0; i < EDGES; i++) {
+                int from = twist.edges[i];
+                result.edges[i] = edges[from];
+                result.edgeFlips[i] = edgeFlips[from] ^ twist.edgeFlips[i];
+            }
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Pieces)) {
+                return false;
+            }
+            Pieces pieces = (Pieces) other;
+            return Arrays.equals(corners, pieces.corners)
+                    && Arrays.equals(cornerTurns, pieces.cornerTurns)
+                    && Arrays.equals(edges, pieces.edges)
+                    && Arrays.equals(edgeFlips, pieces.edgeFlips);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(corners) ^ Arrays.hashCode(edges);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package rubiks.sequential;
+
+/**
+ * Twists using SIMD instructions, through the Vector API of java 16 and
+ * newer (module jdk.incubator.vector). A twist moves the elements of a cube
+ * with one rearrange of each vector of elements, and the misplaced elements
+ * of a cube are counted with one compare per vector.
+ *
+ * The implementation, VectorTwisterImpl, is only compiled by newer javas and
+ * is loaded at runtime. If the class or the module is not available, there
+ * simply is no vector twister, and the scalar code is used.
+ *
+ */
+public abstract class VectorTwister {
+
+    private static final String IMPLEMENTATION = VectorTwister.class
+            .getName() + "Impl";
+
+    /**
+     * Twist the elements of a cube in place.
+     *
+     * @param move
+     *            number of the twist
+     * @param data
+     *            elements of the cube to twist
+     * @param scratch
+     *            array of at least {@link #getScratchSize()} bytes
+     */
+    public abstract void apply(int move, byte[] data, byte[] scratch);
+
+    /**
+     * Counts the elements of a cube which differ from the solved cube.
+     *
+     * @param data
+     *            elements of the cube
+     * @param solved
+     *            elements of the solved cube
+     * @return the number of misplaced elements
+     */
+    public abstract int misplaced(byte[] data, byte[] solved);
+
+    /**
+     * Returns the size of the scratch space needed by
+     * {@link #apply(int, byte[], byte[])}.
+     *
+     * @return the number of bytes needed
+     */
+    public abstract int getScratchSize();
+
+    /**
+     * Creates the vector twister for the twists of a move table, if possible.
+     *
+     * @param moves
+     *            twists to create vector code for
+     * @return the vector twister, or null if the Vector API is not available
+     */
+    static VectorTwister create(MoveTable moves) {
+        try {
+            return (VectorTwister) Class.forName(IMPLEMENTATION)
+                    .getDeclaredConstructor(MoveTable.class).newInstance(moves);
+        } catch (ClassNotFoundException e) {
+            // not compiled, java too old
+            return null;
+        } catch (LinkageError e) {
+            // compiled, but jdk.incubator.vector module not added
+            return null;
+        } catch (Exception e) {
+            throw new Error("could not create vector twister", e);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package rubiks.sequential;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link VectorTwister} using the Vector API. Needs java 16 or newer, and the
+ * jdk.incubator.vector module (java --add-modules jdk.incubator.vector), so
+ * this class is compiled separately, see build.xml.
+ *
+ * The elements of a cube are split into vectors of the preferred size of the
+ * machine (64 elements with AVX-512). For each twist, each vector of the
+ * twisted cube and each vector of the original cube, a shuffle selects the
+ * elements taken from the original vector, and a mask tells which elements
+ * of the twisted vector these are.
+ *
+ */
+final class VectorTwisterImpl extends VectorTwister {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    private final int elements;
+
+    private final int vectors; // vectors needed for the elements of a cube
+
+    // shuffle and mask for each twist, twisted vector and original vector, at
+    // index (move * vectors + twisted) * vectors + original. Null if no
+    // elements of the twisted vector come from the original vector.
+    private final VectorShuffle<Byte>[] shuffles;
+
+    private final VectorMask<Byte>[] masks;
+
+    // valid elements of the last vector
+    private final VectorMask<Byte> last;
+
+    VectorTwisterImpl(MoveTable moves) {
+        int lanes = SPECIES.length();
+        elements = Cube.SIDES * moves.getSize() * moves.getSize();
+        vectors = (elements + lanes - 1) / lanes;
+
+        // arrays of a generic type can only be created raw
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        VectorShuffle<Byte>[] newShuffles = new VectorShuffle[moves
+                .getMoves() * vectors * vectors];
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        VectorMask<Byte>[] newMasks = new VectorMask[newShuffles.length];
+        shuffles = newShuffles;
+        masks = newMasks;
+        last = SPECIES.indexInRange(0, elements - (vectors - 1) * lanes);
+
+        for (int move = 0; move < moves.getMoves(); move++) {
+            for (int twisted = 0; twisted < vectors; twisted++) {
+                for (int original = 0; original < vectors; original++) {
+                    int[] indexes = new int[lanes];
+                    boolean[] selected = new boolean[lanes];
+                    boolean any = false;
+
+                    for (int lane = 0; lane < lanes; lane++) {
+                        int element = twisted * lanes + lane;
+                        if (element >= elements) {
+                            break;
+                        }
+
+                        int source = moves.getSource(move, element);
+                        if (source / lanes == original) {
+                            indexes[lane] = source % lanes;
+                            selected[lane] = true;
+                            any = true;
+                        }
+                    }
+
+                    if (any) {
+                        int index = (move * vectors + twisted) * vectors
+                                + original;
+                        shuffles[index] = VectorShuffle.fromArray(SPECIES,
+                                indexes, 0);
+                        masks[index] = VectorMask.fromArray(SPECIES, selected,
+                                0);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void apply(int move, byte[] data, byte[] scratch) {
+        int lanes = SPECIES.length();
+        System.arraycopy(data, 0, scratch, 0, elements);
+
+        for (int twisted = 0; twisted < vectors; twisted++) {
+            ByteVector result = ByteVector.zero(SPECIES);
+            int base = (move * vectors + twisted) * vectors;
+
+            for (int original = 0; original < vectors; original++) {
+                VectorShuffle<Byte> shuffle = shuffles[base + original];
+                if (shuffle != null) {
+                    ByteVector vector = ByteVector.fromArray(SPECIES, scratch,
+                            original * lanes);
+                    result = result.blend(vector.rearrange(shuffle),
+                            masks[base + original]);
+                }
+            }
+
+            if (twisted == vectors - 1) {
+                result.intoArray(data, twisted * lanes, last);
+            } else {
+                result.intoArray(data, twisted * lanes);
+            }
+        }
+    }
+
+    @Override
+    public int misplaced(byte[] data, byte[] solved) {
+        int lanes = SPECIES.length();
+        int result = 0;
+
+        for (int vector = 0; vector < vectors; vector++) {
+            VectorMask<Byte> valid = vector == vectors - 1 ? last : SPECIES
+                    .maskAll(true);
+            ByteVector elements = ByteVector.fromArray(SPECIES, data, vector
+                    * lanes, valid);
+            ByteVector expected = ByteVector.fromArray(SPECIES, solved,
+                    vector * lanes, valid);
+
+            result += elements.compare(VectorOperators.NE, expected, valid)
+                    .trueCount();
+        }
+        return result;
+    }
+
+    @Override
+    public int getScratchSize() {
+        return vectors * SPECIES.length();
+    }
+}